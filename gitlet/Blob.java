@@ -1,24 +1,55 @@
 package gitlet;
 
+import java.io.EOFException;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.List;
 
 /**
  * Represents a gitlet blob object.
  * Used for serializing and storing files in the Gitlet repository.
+ * Blobs are stored uncompressed as a short header (RAW_MAGIC, the length of
+ * the source path, and the source path) followed by the raw file contents, so
+ * they can be restored without being read into memory. The source path is
+ * the path the blob's id was hashed from, and is kept unchanged when the blob
+ * is copied to another repository. Blobs written by older versions of Gitlet
+ * are Java-serialized and are still readable.
  *
  * @author Jonathan Lu
  */
 
 public class Blob implements Serializable {
 
+    // Matches the serialized form written by older versions of Gitlet.
+    private static final long serialVersionUID = -4270337456604756351L;
+
+    // Marks a blob object file stored in the raw format ("GLB1").
+    static final int RAW_MAGIC = 0x474C4231;
+    // Size of the magic number and path length fields of a raw blob header.
+    private static final int RAW_HEADER_FIELDS = 6;
+
     private final File source;
     private byte[] content;
     private String contentString;
     private String id;
 
-    public Blob(File source) {
+    /**
+     * Creates a blob of the file source, named by the hash of repository
+     * gitletDir.
+     */
+    public Blob(File source, File gitletDir) {
         this.source = source;
         this.content = null;
         this.contentString = null;
@@ -26,45 +57,315 @@ public class Blob implements Serializable {
 
         if (source.exists()) {
             this.content = Utils.readContents(source);
-            this.contentString = Utils.readContentsAsString(source);
-            // This object's id is the SHA-1 hash of the source file path and content.
-            this.id = Utils.sha1(source.getPath(), this.content);
+            // This object's id is the hash of the source file path and content.
+            this.id = HashAlgorithm.of(gitletDir).hash(source.getPath(), this.content);
         }
     }
 
+    /**
+     * Creates a blob for already-known contents without reading the source file.
+     */
+    private Blob(File source, byte[] content, String id) {
+        this.source = source;
+        this.content = content;
+        this.contentString = null;
+        this.id = id;
+    }
+
     /**
      * Returns the blob object stored in the file id. Returns null if the blob id
      * does not reference an existing Blob.
      */
     public static Blob getBlob(String id, File gitletDir) {
-        String folderName = id.substring(0, 2);
-        String fileName = id.substring(2);
-        File objects = Utils.join(gitletDir, "objects");
-        File folder = Utils.join(objects, folderName);
-
-        if (!folder.exists()) {
+        File blobFile = objectFile(id, gitletDir);
+        if (blobFile == null) {
             return null;
         }
+        byte[] stored = Utils.readContents(blobFile);
+        ByteBuffer header = ByteBuffer.wrap(stored);
+        if (stored.length < RAW_HEADER_FIELDS || header.getInt() != RAW_MAGIC) {
+            return Utils.readObject(blobFile, Blob.class);
+        }
+        int pathLength = header.getShort() & 0xFFFF;
+        String sourcePath = new String(stored, RAW_HEADER_FIELDS, pathLength,
+                StandardCharsets.UTF_8);
+        int offset = RAW_HEADER_FIELDS + pathLength;
 
-        File blobFile = Utils.join(folder, fileName);
-        if (fileName.length() < Utils.UID_LENGTH - 2) {
-            List<String> containedBlobs = Utils.plainFilenamesIn(folder);
-            assert containedBlobs != null;
-            for (String blobId : containedBlobs) {
-                if (blobId.startsWith(fileName)) {
-                    blobFile = Utils.join(folder, blobId);
+        byte[] content = new byte[stored.length - offset];
+        System.arraycopy(stored, offset, content, 0, content.length);
+        return new Blob(new File(sourcePath), content,
+                blobFile.getParentFile().getName() + blobFile.getName());
+    }
+
+    /**
+     * Writes the contents of the blob with the given id to the target file,
+     * creating or overwriting it as needed. Raw blobs are copied from the object
+     * file with FileChannel.transferTo, so their contents never pass through the
+     * heap. Returns false if the blob id does not reference an existing Blob.
+     */
+    public static boolean restore(String id, File gitletDir, File target) {
+        File blobFile = objectFile(id, gitletDir);
+        if (blobFile == null) {
+            return false;
+        }
+        File targetDir = target.getParentFile();
+        if (targetDir != null) {
+            targetDir.mkdirs();
+        }
+        try (FileChannel in = FileChannel.open(blobFile.toPath(), StandardOpenOption.READ)) {
+            long offset = contentOffset(in);
+            if (offset < 0) {
+                Blob legacy = Utils.readObject(blobFile, Blob.class);
+                if (legacy == null) {
+                    return false;
                 }
+                Utils.writeContents(target, (Object) legacy.getContent());
+                return true;
+            }
+            try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                copyContent(in, offset, out);
             }
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        if (!blobFile.exists()) {
+    }
+
+    /**
+     * Returns the length in bytes of the contents of the blob with the given id,
+     * or -1 if the blob id does not reference an existing Blob.
+     */
+    public static long contentLength(String id, File gitletDir) {
+        File blobFile = objectFile(id, gitletDir);
+        if (blobFile == null) {
+            return -1;
+        }
+        try (FileChannel in = FileChannel.open(blobFile.toPath(), StandardOpenOption.READ)) {
+            long offset = contentOffset(in);
+            if (offset < 0) {
+                Blob legacy = Utils.readObject(blobFile, Blob.class);
+                return legacy == null ? -1 : legacy.getContent().length;
+            }
+            return in.size() - offset;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Copies the contents of the blob with the given id to out, straight from the
+     * object file for raw blobs. Returns false if the blob id does not reference
+     * an existing Blob.
+     */
+    public static boolean transferContent(String id, File gitletDir, WritableByteChannel out) {
+        File blobFile = objectFile(id, gitletDir);
+        if (blobFile == null) {
+            return false;
+        }
+        try (FileChannel in = FileChannel.open(blobFile.toPath(), StandardOpenOption.READ)) {
+            long offset = contentOffset(in);
+            if (offset < 0) {
+                Blob legacy = Utils.readObject(blobFile, Blob.class);
+                if (legacy == null) {
+                    return false;
+                }
+                ByteBuffer content = ByteBuffer.wrap(legacy.getContent());
+                while (content.hasRemaining()) {
+                    out.write(content);
+                }
+                return true;
+            }
+            copyContent(in, offset, out);
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Copies the blob with the given id from repository fromDir into repository
+     * toDir. The contents of raw blobs are copied between object files with
+     * FileChannel.transferTo. Returns false if the blob id does not reference
+     * an existing Blob.
+     */
+    public static boolean copy(String id, File fromDir, File toDir) {
+        File blobFile = objectFile(id, fromDir);
+        if (blobFile == null) {
+            return false;
+        }
+        File folder = Utils.join(toDir, "objects", id.substring(0, 2));
+        folder.mkdirs();
+        try (FileChannel in = FileChannel.open(blobFile.toPath(), StandardOpenOption.READ)) {
+            long offset = contentOffset(in);
+            if (offset < 0) {
+                Blob legacy = Utils.readObject(blobFile, Blob.class);
+                if (legacy == null) {
+                    return false;
+                }
+                new Blob(legacy.getSource(), legacy.getContent(), id).save(toDir);
+                return true;
+            }
+            // Written under a temporary name, so a partial copy is never mistaken for the blob.
+            Path temp = Files.createTempFile(folder.toPath(), "copy", ".tmp");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                copyContent(in, 0, out);
+            }
+            Files.move(temp, Utils.join(folder, id.substring(2)).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Stores the next length bytes of in as the contents of the blob with the
+     * given id in repository gitletDir, where source is the path the id was
+     * hashed from. The contents are streamed to the object file, never held
+     * whole in memory, and hashed on the way; a blob that does not hash to its
+     * id is refused. If gitletDir already has the blob, the bytes are skipped.
+     * Returns true if the blob was stored.
+     */
+    public static boolean receive(String id, File source, long length, InputStream in,
+            File gitletDir) throws IOException {
+        File folder = Utils.join(gitletDir, "objects", id.substring(0, 2));
+        folder.mkdirs();
+        File blobFile = Utils.join(folder, id.substring(2));
+        if (blobFile.exists()) {
+            in.skipNBytes(length);
+            return false;
+        }
+        // Written under a temporary name, so a partial transfer is never mistaken for the blob.
+        Path temp = Files.createTempFile(folder.toPath(), "receive", ".tmp");
+        MessageDigest md = HashAlgorithm.of(gitletDir).newDigest();
+        md.update(source.getPath().getBytes(StandardCharsets.UTF_8));
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            out.write(rawHeader(source));
+            byte[] buffer = new byte[64 * 1024];
+            long remaining = length;
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    throw new EOFException("Unexpected end of blob " + id);
+                }
+                out.write(buffer, 0, n);
+                md.update(buffer, 0, n);
+                remaining -= n;
+            }
+        } catch (IOException excp) {
+            Files.deleteIfExists(temp);
+            throw excp;
+        }
+        if (!ObjectId.toHex(md.digest()).equals(id)) {
+            Files.deleteIfExists(temp);
+            throw Utils.error("Received a blob that does not match its id.");
+        }
+        Files.move(temp, blobFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    /**
+     * Returns the path of the file the blob with the given id belongs to in
+     * repository gitletDir, or null if the blob id does not reference an
+     * existing Blob.
+     */
+    static String sourcePath(String id, File gitletDir) {
+        File blobFile = objectFile(id, gitletDir);
+        if (blobFile == null) {
             return null;
         }
-        return Utils.readObject(blobFile, Blob.class);
+        try (FileChannel in = FileChannel.open(blobFile.toPath(), StandardOpenOption.READ)) {
+            long offset = contentOffset(in);
+            if (offset < 0) {
+                Blob legacy = Utils.readObject(blobFile, Blob.class);
+                return legacy == null ? null : legacy.getSource().getPath();
+            }
+            ByteBuffer path = ByteBuffer.allocate((int) offset - RAW_HEADER_FIELDS);
+            while (path.hasRemaining()) {
+                if (in.read(path, RAW_HEADER_FIELDS + path.position()) < 0) {
+                    return null;
+                }
+            }
+            return new String(path.array(), StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the object file of the blob with the given id in repository
+     * gitletDir, fetching it first from the promisor remotes of a partial
+     * repository if it is missing, or null if there is no such blob.
+     */
+    private static File objectFile(String id, File gitletDir) {
+        File blobFile = Utils.objectFile(id, gitletDir);
+        if (blobFile == null) {
+            Promisor.fetch(List.of(id), gitletDir);
+            blobFile = Utils.objectFile(id, gitletDir);
+        }
+        return blobFile;
+    }
+
+    /**
+     * Returns true if the given object file holds a blob in the raw format.
+     */
+    static boolean isRaw(File objectFile) {
+        try (FileChannel in = FileChannel.open(objectFile.toPath(), StandardOpenOption.READ)) {
+            return contentOffset(in) >= 0;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies everything after offset in the object file read by in to out.
+     */
+    private static void copyContent(FileChannel in, long offset, WritableByteChannel out)
+            throws IOException {
+        long size = in.size() - offset;
+        long copied = 0;
+        while (copied < size) {
+            copied += in.transferTo(offset + copied, size - copied, out);
+        }
+    }
+
+    /**
+     * Returns the position of the file contents within the raw blob object read
+     * by channel, or -1 if the object is not stored in the raw format.
+     */
+    private static long contentOffset(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RAW_HEADER_FIELDS);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                return -1;
+            }
+        }
+        header.flip();
+        if (header.getInt() != RAW_MAGIC) {
+            return -1;
+        }
+        return RAW_HEADER_FIELDS + (header.getShort() & 0xFFFF);
+    }
+
+    /**
+     * Returns the raw header written before the contents of a blob whose source
+     * is the given file.
+     */
+    static byte[] rawHeader(File source) {
+        byte[] path = source.getPath().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(RAW_HEADER_FIELDS + path.length);
+        header.putInt(RAW_MAGIC);
+        header.putShort((short) path.length);
+        header.put(path);
+        return header.array();
     }
 
     /**
      * Saves the blob object to the OBJECTS file in a directory named
-     * the first two characters of the blob id.
+     * the first two characters of the blob id. The file is written under a
+     * temporary name and renamed into place, so it is never seen half-written.
      */
     public void save(File gitletDir) {
         String folderName = id.substring(0, 2);
@@ -73,7 +374,7 @@ public class Blob implements Serializable {
         File folder = Utils.join(objects, folderName);
         folder.mkdir();
         File blobFile = Utils.join(folder, fileName);
-        Utils.writeObject(blobFile, this);
+        Utils.writeContentsAtomically(blobFile, rawHeader(source), content);
     }
 
     public File getSource() {
@@ -97,6 +398,9 @@ public class Blob implements Serializable {
     }
 
     public String getContentString() {
+        if (contentString == null && content != null) {
+            contentString = new String(content, StandardCharsets.UTF_8);
+        }
         return contentString;
     }
 
@@ -1,43 +1,229 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Represents a gitlet branch object.
- * Used for storing branches made in the Gitlet repository.
+ * Used for storing branches made in the Gitlet repository. A branch is stored
+ * as the id of its head commit, either in its own file in the branches folder
+ * or as a line "[commit id] [branch name]" in the packed-refs file. A branch
+ * file takes precedence over a packed entry of the same name. Branch files
+ * written by older versions of Gitlet hold a Java-serialized Branch with its
+ * whole head commit, and are read with readLegacy.
  *
  * @author Jonathan Lu
  */
 
 public class Branch implements Serializable {
 
-    private final String name;
-    private final Commit head;
+    private static final long serialVersionUID = -983706627945944908L;
+    // Fields of a Branch as older versions of Gitlet serialized it.
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("name", String.class),
+        new ObjectStreamField("head", Commit.class)
+    };
+
+    private String name;
+    private String headId;
 
     /**
      * Initializes the Branch object and creates an instance of the
      * associated file in BRANCHES_DIR.
      */
-    public Branch(String name, Commit head) {
+    public Branch(String name, String headId) {
+        if (!isValidName(name)) {
+            throw Utils.error("Invalid branch name: %s", name);
+        }
         this.name = name;
-        this.head = head;
+        this.headId = headId;
+    }
+
+    /**
+     * Returns the branch with the given name in repository gitletDir, or null if
+     * no such branch exists.
+     */
+    public static Branch readBranch(String name, File gitletDir) {
+        if (!isValidName(name)) {
+            return null;
+        }
+        File branchFile = Utils.join(gitletDir, "branches", name);
+        if (branchFile.isFile() && isBranchFile(name)) {
+            return new Branch(name, readHeadId(branchFile));
+        }
+        String packedId = readPackedRefs(gitletDir).get(name);
+        return packedId == null ? null : new Branch(name, packedId);
+    }
+
+    /**
+     * Returns true if name can name a branch: it must be a plain file name in
+     * the branches folder, so it may not contain a path separator or "..",
+     * start with ".", or be the name of the active branch file.
+     */
+    static boolean isValidName(String name) {
+        return name != null && !name.isEmpty() && !name.contains("/")
+                && !name.contains(File.separator) && !name.contains("..")
+                && !name.startsWith(".") && !name.equals("active branch");
+    }
+
+    /**
+     * Returns true if a branch with the given name exists in repository gitletDir.
+     */
+    public static boolean exists(String name, File gitletDir) {
+        return readBranch(name, gitletDir) != null;
+    }
+
+    /**
+     * Returns the names of all branches in repository gitletDir in lexicographic
+     * order. Only the branches folder is listed; no branch files are opened.
+     */
+    public static List<String> branchNames(File gitletDir) {
+        Map<String, String> refs = readPackedRefs(gitletDir);
+        List<String> looseNames = Utils.plainFilenamesIn(Utils.join(gitletDir, "branches"));
+        if (looseNames != null) {
+            for (String branchName : looseNames) {
+                if (isBranchFile(branchName)) {
+                    refs.put(branchName, null);
+                }
+            }
+        }
+        return new ArrayList<>(refs.keySet());
+    }
+
+    /**
+     * Deletes the branch with the given name from repository gitletDir.
+     */
+    public static void delete(String name, File gitletDir) {
+        Utils.join(gitletDir, "branches", name).delete();
+        Map<String, String> packed = readPackedRefs(gitletDir);
+        if (packed.remove(name) != null) {
+            writePackedRefs(packed, gitletDir);
+        }
+    }
+
+    /**
+     * Moves every branch file of repository gitletDir into the packed-refs file.
+     */
+    public static void packRefs(File gitletDir) {
+        Map<String, String> packed = readPackedRefs(gitletDir);
+        File branchFolder = Utils.join(gitletDir, "branches");
+        List<String> looseNames = Utils.plainFilenamesIn(branchFolder);
+        assert looseNames != null;
+        List<File> packedFiles = new ArrayList<>();
+        for (String branchName : looseNames) {
+            if (!isBranchFile(branchName)) {
+                continue;
+            }
+            File branchFile = Utils.join(branchFolder, branchName);
+            packed.put(branchName, readHeadId(branchFile));
+            packedFiles.add(branchFile);
+        }
+        writePackedRefs(packed, gitletDir);
+        packedFiles.forEach(File::delete);
+    }
+
+    /**
+     * Returns the head commit id stored in the given branch file, which holds
+     * either the id or a Java-serialized Branch.
+     */
+    private static String readHeadId(File branchFile) {
+        byte[] data = Utils.readContents(branchFile);
+        Branch legacy = Codec.readLegacy(data, Branch.class);
+        if (legacy != null) {
+            return legacy.headId;
+        }
+        return new String(data, StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Reads a Branch serialized by an older version of Gitlet, keeping only the
+     * id of its head commit.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        name = (String) fields.get("name", null);
+        Commit head = (Commit) fields.get("head", null);
+        if (head == null) {
+            throw new IOException("Branch has no head commit.");
+        }
+        headId = head.getId();
+    }
+
+    /**
+     * Returns true if the file with the given name in the branches folder holds
+     * a branch, rather than the active branch name or an unfinished save.
+     */
+    private static boolean isBranchFile(String fileName) {
+        return !fileName.equals("active branch") && !fileName.startsWith(".");
+    }
+
+    /**
+     * Returns the packed branches of repository gitletDir, mapping each branch
+     * name to its head commit id.
+     */
+    private static Map<String, String> readPackedRefs(File gitletDir) {
+        Map<String, String> packed = new TreeMap<>();
+        File packedRefs = Utils.join(gitletDir, "packed-refs");
+        if (!packedRefs.exists()) {
+            return packed;
+        }
+        for (String line : Utils.readContentsAsString(packedRefs).split("\n")) {
+            int split = line.indexOf(' ');
+            if (split > 0) {
+                packed.put(line.substring(split + 1), line.substring(0, split));
+            }
+        }
+        return packed;
+    }
+
+    private static void writePackedRefs(Map<String, String> packed, File gitletDir) {
+        StringBuilder refs = new StringBuilder();
+        for (Map.Entry<String, String> entry : packed.entrySet()) {
+            refs.append(entry.getValue()).append(" ").append(entry.getKey()).append("\n");
+        }
+        Utils.writeContents(Utils.join(gitletDir, "packed-refs"), refs.toString());
     }
 
     /**
-     * Saves the Branch object to a file (titled name) in the branches folder.
+     * Saves the head commit id of this branch to a file (titled name) in the
+     * branches folder. The file is replaced atomically, so readers see either
+     * the old or the new head.
      */
     public void save(File gitletDir) {
         File branchFolder = Utils.join(gitletDir, "branches");
         File branchFile = Utils.join(branchFolder, name);
-        Utils.writeObject(branchFile, this);
+        File temp = Utils.join(branchFolder, "." + name + ".lock");
+        Utils.writeContents(temp, headId);
+        try {
+            Files.move(temp.toPath(), branchFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     public String getName() {
         return name;
     }
 
-    public Commit getHead() {
-        return head;
+    public String getHeadId() {
+        return headId;
+    }
+
+    /**
+     * Returns the head commit of this branch, read from repository gitletDir.
+     */
+    public Commit getHead(File gitletDir) {
+        return Commit.getCommit(headId, gitletDir);
     }
 }
@@ -0,0 +1,167 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Reads and writes bundles: single files that carry history between
+ * repositories that cannot reach each other. A bundle starts with BUNDLE_MAGIC,
+ * the number of branches it holds and each one's name and head, and the number
+ * of prerequisite commits and their ids. The rest is a Pack of the commits
+ * reachable from its branches but not from its prerequisites, and of their
+ * blobs. A repository can only read a bundle if it has the prerequisites.
+ *
+ * @author Jonathan Lu
+ */
+
+public class Bundle {
+
+    // Marks the start of a bundle file ("GLN1").
+    private static final int BUNDLE_MAGIC = 0x474C4E31;
+
+    /**
+     * Returns true if file is a bundle.
+     */
+    static boolean isBundle(File file) {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            return in.readInt() == BUNDLE_MAGIC;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the names of the branches held by the bundle in file.
+     */
+    static List<String> branchNames(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != BUNDLE_MAGIC) {
+                throw Utils.error("%s is not a bundle.", file.getPath());
+            }
+            List<String> names = new ArrayList<>();
+            for (int count = in.readInt(); count > 0; count--) {
+                names.add(in.readUTF());
+                in.readUTF();
+            }
+            return names;
+        } catch (IOException excp) {
+            throw Utils.error("Could not read the bundle: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Writes a bundle of branch branchName of repository gitletDir to file. If
+     * sinceId is not null, the bundle leaves out that commit and its ancestors
+     * and the blobs of that commit, and lists it as a prerequisite.
+     */
+    static void create(File file, String branchName, String sinceId, File gitletDir) {
+        String headId = Branch.readBranch(branchName, gitletDir).getHeadId();
+        List<String> commitIds;
+        Set<String> excludedBlobs = new HashSet<>();
+        if (sinceId == null) {
+            commitIds = Utils.missingCommits(headId, gitletDir, id -> false);
+        } else {
+            Reachability index = Reachability.read(gitletDir);
+            if (index != null) {
+                commitIds = index.reachableExcept(headId, sinceId, gitletDir);
+            } else {
+                Set<String> excluded = new HashSet<>(
+                        Utils.missingCommits(sinceId, gitletDir, id -> false));
+                commitIds = Utils.missingCommits(headId, gitletDir, excluded::contains);
+            }
+            excludedBlobs.addAll(Commit.getCommit(sinceId, gitletDir).getTracked().values());
+        }
+        Shallow.checkComplete(commitIds, gitletDir);
+        Set<String> blobIds = new HashSet<>();
+        for (String id : commitIds) {
+            for (String blobId : Commit.getCommit(id, gitletDir).getTracked().values()) {
+                if (!excludedBlobs.contains(blobId)) {
+                    blobIds.add(blobId);
+                }
+            }
+        }
+
+        File target = file.getAbsoluteFile();
+        try {
+            // Written under a temporary name, so a partial bundle is never mistaken for one.
+            Path temp = Files.createTempFile(target.getParentFile().toPath(), "bundle", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp), 64 * 1024))) {
+                out.writeInt(BUNDLE_MAGIC);
+                out.writeInt(1);
+                out.writeUTF(branchName);
+                out.writeUTF(headId);
+                out.writeInt(sinceId == null ? 0 : 1);
+                if (sinceId != null) {
+                    out.writeUTF(sinceId);
+                }
+                Pack.write(commitIds, blobIds, gitletDir, out);
+            } catch (IOException excp) {
+                Files.deleteIfExists(temp);
+                throw excp;
+            }
+            Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw Utils.error("Could not write the bundle: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Reads the objects of the bundle in file into repository gitletDir and
+     * returns the heads of the bundle's branches, keyed by branch name. If
+     * branchName is not null, the bundle must hold that branch, and its commits
+     * are recorded on branch localBranchName; otherwise they are recorded on
+     * the bundle's own branch. If journal is not null, every object written is
+     * recorded in it.
+     */
+    static Map<String, String> read(File file, String branchName, String localBranchName,
+            File gitletDir, Journal journal) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(file.toPath()), 64 * 1024))) {
+            if (in.readInt() != BUNDLE_MAGIC) {
+                throw Utils.error("%s is not a bundle.", file.getPath());
+            }
+            Map<String, String> refs = new TreeMap<>();
+            for (int count = in.readInt(); count > 0; count--) {
+                refs.put(in.readUTF(), in.readUTF());
+            }
+            if (refs.isEmpty()) {
+                throw Utils.error("%s is not a bundle.", file.getPath());
+            }
+            for (Map.Entry<String, String> ref : refs.entrySet()) {
+                if (!Branch.isValidName(ref.getKey()) || !ObjectId.isId(ref.getValue())) {
+                    throw Utils.error("%s is not a bundle.", file.getPath());
+                }
+                HashAlgorithm.checkIdLength(gitletDir, ref.getValue().length());
+            }
+            if (branchName != null && !refs.containsKey(branchName)) {
+                Utils.exit("That remote does not have that branch.");
+            }
+            for (int count = in.readInt(); count > 0; count--) {
+                if (Utils.objectFile(Pack.readId(in, gitletDir), gitletDir) == null) {
+                    Utils.exit("The repository lacks commits this bundle requires.");
+                }
+            }
+            String recordedBranch = branchName != null ? localBranchName
+                    : refs.keySet().iterator().next();
+            List<String> added = Pack.read(in, recordedBranch, gitletDir, null, journal);
+            Shallow.update(added, gitletDir);
+            return refs;
+        } catch (IOException excp) {
+            throw Utils.error("Could not read the bundle: %s", excp.getMessage());
+        }
+    }
+}
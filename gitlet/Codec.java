@@ -0,0 +1,400 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Reads and writes the compact binary form of repository metadata, used by
+ * Commit and Staging in place of Java serialization. Each record starts with a
+ * magic number whose first three bytes name the record type and whose last
+ * byte is the ASCII digit of its format version, so readers can tell formats
+ * apart and refuse ones written by newer versions of Gitlet.
+ *
+ * Counts and lengths are written as variable-length integers, strings as their
+ * UTF-8 bytes, and object ids as their 20 or 32 bytes rather than hex digits.
+ * Maps and sets of file paths are written sorted, each path as the length of
+ * the prefix it shares with the one before it and the rest of the path, since
+ * the paths of a repository share long prefixes. That is format 1, which
+ * packs carry between repositories. Records kept inside a repository use
+ * format 2, which writes each path as its number in the repository's
+ * PathTable instead: entries are sorted by number, and each number is written
+ * as its difference from the one before. Files written by older versions of
+ * Gitlet are Java-serialized and are read with readLegacy.
+ *
+ * @author Jonathan Lu
+ */
+
+public class Codec {
+
+    // Format of records that write file paths in full, as packs carry them.
+    static final int FULL_PATH_FORMAT = 1;
+    // Format of records that write file paths as numbers in a PathTable.
+    static final int PATH_TABLE_FORMAT = 2;
+    // Newest format this version of Gitlet reads.
+    static final int FORMAT_VERSION = PATH_TABLE_FORMAT;
+
+    // First two bytes of a Java serialization stream.
+    private static final int SERIALIZATION_MAGIC = 0xACED;
+    // Marks an object id stored as its 20 bytes, its 32 bytes, or as a string.
+    private static final byte BINARY_ID = 1;
+    private static final byte LONG_BINARY_ID = 2;
+    private static final byte STRING_ID = 0;
+
+    /**
+     * Returns the magic number of records of the type named by prefix, a
+     * three-character string, in the given format version.
+     */
+    static int magic(String prefix, int version) {
+        return prefix.charAt(0) << 24 | prefix.charAt(1) << 16 | prefix.charAt(2) << 8
+                | ('0' + version);
+    }
+
+    /**
+     * Returns the format version of a record of the type named by prefix that
+     * starts with the given data, or -1 if data does not start such a record.
+     */
+    static int version(byte[] data, String prefix) {
+        if (data.length < 4) {
+            return -1;
+        }
+        int found = ByteBuffer.wrap(data).getInt();
+        if ((found & ~0xFF) != (magic(prefix, 0) & ~0xFF)) {
+            return -1;
+        }
+        int version = (found & 0xFF) - '0';
+        if (version < 1 || version > 9) {
+            return -1;
+        }
+        if (version > FORMAT_VERSION) {
+            throw Utils.error("This repository was written by a newer version of Gitlet.");
+        }
+        return version;
+    }
+
+    /**
+     * Returns the object of class expectedClass Java-serialized in data, or
+     * null if data does not hold one.
+     */
+    static <T extends Serializable> T readLegacy(byte[] data, Class<T> expectedClass) {
+        if (data.length < 2 || ((data[0] & 0xFF) << 8 | (data[1] & 0xFF)) != SERIALIZATION_MAGIC) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException | ClassNotFoundException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the parts of a record into a byte array.
+     */
+    static class Writer {
+        private ByteBuffer out = ByteBuffer.allocate(256);
+        // UTF-8 bytes of the path written last by writePathMap or writePathSet.
+        private byte[] previousPath = new byte[0];
+
+        Writer(int magic) {
+            writeInt(magic);
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            out.putInt(value);
+        }
+
+        void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                out.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.put((byte) value);
+        }
+
+        /**
+         * Writes a string, which may be null.
+         */
+        void writeString(String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(utf8.length + 1);
+            ensure(utf8.length);
+            out.put(utf8);
+        }
+
+        /**
+         * Writes an object id, which may be null. Full hex ids take 21 bytes,
+         * or 33 for SHA-256 ids.
+         */
+        void writeId(String id) {
+            if (ObjectId.isId(id)) {
+                ObjectId objectId = ObjectId.fromHex(id);
+                ensure(1 + objectId.length);
+                out.put(objectId.length == HashAlgorithm.SHA1.length() ? BINARY_ID : LONG_BINARY_ID);
+                objectId.writeTo(out);
+                return;
+            }
+            ensure(1);
+            out.put(STRING_ID);
+            writeString(id);
+        }
+
+        /**
+         * Writes a map from file paths to object ids.
+         */
+        void writePathMap(Map<String, String> map) {
+            String[] paths = sortedPaths(map.keySet());
+            writeVarInt(paths.length);
+            previousPath = new byte[0];
+            for (String path : paths) {
+                writePath(path);
+                writeId(map.get(path));
+            }
+        }
+
+        /**
+         * Writes a set of file paths.
+         */
+        void writePathSet(Set<String> set) {
+            String[] paths = sortedPaths(set);
+            writeVarInt(paths.length);
+            previousPath = new byte[0];
+            for (String path : paths) {
+                writePath(path);
+            }
+        }
+
+        /**
+         * Writes a map from file paths to object ids, with each path written
+         * as its number in table.
+         */
+        void writePathIds(Map<String, String> map, PathTable table) {
+            // Each entry is its path number in the high half and its index in the low half.
+            long[] entries = new long[map.size()];
+            String[] values = new String[map.size()];
+            int i = 0;
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                entries[i] = (long) table.id(entry.getKey()) << 32 | i;
+                values[i] = entry.getValue();
+                i += 1;
+            }
+            Arrays.sort(entries);
+            writeVarInt(entries.length);
+            int previous = -1;
+            for (long entry : entries) {
+                int id = (int) (entry >>> 32);
+                writeVarInt(id - previous);
+                writeId(values[(int) entry]);
+                previous = id;
+            }
+        }
+
+        /**
+         * Writes a set of file paths, each as its number in table.
+         */
+        void writePathIdSet(Set<String> set, PathTable table) {
+            int[] ids = new int[set.size()];
+            int i = 0;
+            for (String path : set) {
+                ids[i++] = table.id(path);
+            }
+            Arrays.sort(ids);
+            writeVarInt(ids.length);
+            int previous = -1;
+            for (int id : ids) {
+                writeVarInt(id - previous);
+                previous = id;
+            }
+        }
+
+        private static String[] sortedPaths(Collection<String> paths) {
+            String[] sorted = paths.toArray(new String[0]);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        private void writePath(String path) {
+            byte[] utf8 = path.getBytes(StandardCharsets.UTF_8);
+            int shared = Arrays.mismatch(utf8, previousPath);
+            if (shared < 0) {
+                shared = utf8.length;
+            }
+            shared = Math.min(shared, Math.min(utf8.length, previousPath.length));
+            writeVarInt(shared);
+            writeVarInt(utf8.length - shared);
+            ensure(utf8.length - shared);
+            out.put(utf8, shared, utf8.length - shared);
+            previousPath = utf8;
+        }
+
+        private void ensure(int bytes) {
+            if (out.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2,
+                        out.position() + bytes));
+                out.flip();
+                larger.put(out);
+                out = larger;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(out.array(), out.position());
+        }
+    }
+
+    /**
+     * Reads the parts of a record from a byte array, after its magic number.
+     * A record that ends early is reported as a GitletException.
+     */
+    static class Reader {
+        private final ByteBuffer in;
+        // UTF-8 bytes of the path read last by readPathMap or readPathSet.
+        private byte[] path = new byte[256];
+
+        Reader(byte[] data) {
+            in = ByteBuffer.wrap(data);
+            in.position(4);
+        }
+
+        int readInt() {
+            try {
+                return in.getInt();
+            } catch (BufferUnderflowException excp) {
+                throw truncated();
+            }
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw Utils.error("Malformed repository metadata.");
+        }
+
+        String readString() {
+            int length = readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            if (length > in.remaining()) {
+                throw truncated();
+            }
+            String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+
+        String readId() {
+            byte kind = readByte();
+            if (kind == STRING_ID) {
+                return readString();
+            }
+            int length = kind == BINARY_ID ? HashAlgorithm.SHA1.length() : HashAlgorithm.SHA256.length();
+            if (kind != BINARY_ID && kind != LONG_BINARY_ID) {
+                throw Utils.error("Malformed repository metadata.");
+            }
+            if (in.remaining() < length) {
+                throw truncated();
+            }
+            return ObjectId.readFrom(in, length).name();
+        }
+
+        /**
+         * Reads a map written by Writer.writePathMap into a HashMap.
+         */
+        Map<String, String> readPathMap() {
+            int count = readVarInt();
+            Map<String, String> map = new HashMap<>(Math.max(16, count * 4 / 3 + 1));
+            int length = 0;
+            for (int i = 0; i < count; i++) {
+                length = readPath(length);
+                map.put(new String(path, 0, length, StandardCharsets.UTF_8), readId());
+            }
+            return map;
+        }
+
+        /**
+         * Reads the paths written by Writer.writePathSet into set.
+         */
+        void readPathSet(Set<String> set) {
+            int count = readVarInt();
+            int length = 0;
+            for (int i = 0; i < count; i++) {
+                length = readPath(length);
+                set.add(new String(path, 0, length, StandardCharsets.UTF_8));
+            }
+        }
+
+        /**
+         * Reads a map written by Writer.writePathIds into a HashMap, looking
+         * up the paths in table.
+         */
+        Map<String, String> readPathIds(PathTable table) {
+            int count = readVarInt();
+            Map<String, String> map = new HashMap<>(Math.max(16, count * 4 / 3 + 1));
+            int id = -1;
+            for (int i = 0; i < count; i++) {
+                id += readVarInt();
+                map.put(table.path(id), readId());
+            }
+            return map;
+        }
+
+        /**
+         * Reads the paths written by Writer.writePathIdSet into set, looking
+         * them up in table.
+         */
+        void readPathIdSet(Set<String> set, PathTable table) {
+            int count = readVarInt();
+            int id = -1;
+            for (int i = 0; i < count; i++) {
+                id += readVarInt();
+                set.add(table.path(id));
+            }
+        }
+
+        /**
+         * Reads the next path into path, given the length of the one before it,
+         * and returns its length.
+         */
+        private int readPath(int previousLength) {
+            int shared = readVarInt();
+            int suffix = readVarInt();
+            if (shared > previousLength || suffix > in.remaining()) {
+                throw Utils.error("Malformed repository metadata.");
+            }
+            if (shared + suffix > path.length) {
+                path = Arrays.copyOf(path, Math.max(path.length * 2, shared + suffix));
+            }
+            in.get(path, shared, suffix);
+            return shared + suffix;
+        }
+
+        private byte readByte() {
+            try {
+                return in.get();
+            } catch (BufferUnderflowException excp) {
+                throw truncated();
+            }
+        }
+
+        private static GitletException truncated() {
+            return Utils.error("Repository metadata ends unexpectedly.");
+        }
+    }
+}
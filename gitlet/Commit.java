@@ -9,13 +9,22 @@ import static gitlet.Utils.*;
 /**
  * Represents a gitlet commit object. Commits are hashed using message, parents,
  * tracked, and timestamp. Used for serializing and storing commits in the
- * Gitlet repository.
+ * Gitlet repository. Commits are stored in the binary form written by encode
+ * (see Codec), with their paths numbered by the repository's PathTable;
+ * commits written by older versions of Gitlet are Java-serialized and are
+ * still readable.
  *
  * @author Jonathan Lu
  */
 
 public class Commit implements Serializable {
 
+    // Matches the serialized form written by older versions of Gitlet.
+    private static final long serialVersionUID = -4832666602126641435L;
+
+    // Names commit records in the binary format (see Codec).
+    private static final String RECORD_TYPE = "GLC";
+
     private final String message;
     private final String timestamp;
     private final List<String> parents;
@@ -27,15 +36,17 @@ public class Commit implements Serializable {
      * corresponds to the least common ancestor of two nodes.
      */
     private final int depth;
-    private String id;
+    private final String id;
     private File commitPath = null;
+    // True if a shallow fetch left out this commit's parents.
+    private transient boolean boundary = false;
 
     /**
-     * Creates the commit object.
+     * Creates the commit object, named by the hash of repository gitletDir.
      * If parents and tracked are null, creates the initial commit.
      */
     public Commit(String message, List<String> parents, Map<String, String> tracked,
-            String timestamp, int depth, String branch) {
+            String timestamp, int depth, String branch, File gitletDir) {
         this.message = message;
         this.timestamp = timestamp;
         this.depth = depth;
@@ -44,8 +55,110 @@ public class Commit implements Serializable {
         this.parents = Objects.requireNonNullElseGet(parents, ArrayList::new);
         // IF tracked is null, tracked is an empty HashMap.
         this.tracked = Objects.requireNonNullElseGet(tracked, HashMap::new);
-        // This object's id is the SHA-1 hash of the message, parents, and tracked.
-        this.id = sha1(this.message, this.parents.toString(), this.tracked.toString());
+        // This object's id is the hash of the message, parents, and tracked.
+        this.id = HashAlgorithm.of(gitletDir).hash(this.message,
+                this.parents.toString(), this.tracked.toString());
+    }
+
+    /**
+     * Creates a commit whose id is already known, without hashing its contents.
+     */
+    private Commit(Commit c, Map<String, String> tracked, String branch) {
+        this.message = c.message;
+        this.timestamp = c.timestamp;
+        this.parents = c.parents;
+        this.depth = c.depth;
+        this.tracked = tracked;
+        this.branch = branch;
+        this.id = c.id;
+    }
+
+    /**
+     * Creates a commit read from its binary form.
+     */
+    private Commit(String id, String message, String timestamp, String branch, int depth,
+            List<String> parents, Map<String, String> tracked) {
+        this.id = id;
+        this.message = message;
+        this.timestamp = timestamp;
+        this.branch = branch;
+        this.depth = depth;
+        this.parents = parents;
+        this.tracked = tracked;
+    }
+
+    /**
+     * Returns the binary form of this commit with its paths in full, as packs
+     * carry it.
+     */
+    byte[] encode() {
+        return encode(null);
+    }
+
+    /**
+     * Returns the binary form of this commit. If paths is not null, tracked
+     * files are written as their numbers in that table, which only its own
+     * repository can read.
+     */
+    byte[] encode(PathTable paths) {
+        int format = paths == null ? Codec.FULL_PATH_FORMAT : Codec.PATH_TABLE_FORMAT;
+        Codec.Writer out = new Codec.Writer(Codec.magic(RECORD_TYPE, format));
+        out.writeId(id);
+        out.writeString(message);
+        out.writeString(timestamp);
+        out.writeString(branch);
+        out.writeVarInt(depth);
+        out.writeVarInt(parents.size());
+        for (String parentId : parents) {
+            out.writeId(parentId);
+        }
+        if (paths == null) {
+            out.writePathMap(tracked);
+        } else {
+            out.writePathIds(tracked, paths);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the commit another repository sent as data, or null if data
+     * does not hold a commit with its paths in full. Packs only carry that
+     * form, so Java-serialized data from a peer is never deserialized.
+     */
+    static Commit decode(byte[] data) {
+        if (Codec.version(data, RECORD_TYPE) != Codec.FULL_PATH_FORMAT) {
+            return null;
+        }
+        return decode(data, null);
+    }
+
+    /**
+     * Returns the commit stored as data in repository gitletDir, in either
+     * binary form or Java-serialized, or null if data does not hold a commit.
+     * If gitletDir is null, only commits with their paths in full are read.
+     */
+    static Commit decode(byte[] data, File gitletDir) {
+        int format = Codec.version(data, RECORD_TYPE);
+        if (format < 0) {
+            return Codec.readLegacy(data, Commit.class);
+        }
+        if (format == Codec.PATH_TABLE_FORMAT && gitletDir == null) {
+            return null;
+        }
+        Codec.Reader in = new Codec.Reader(data);
+        String id = in.readId();
+        String message = in.readString();
+        String timestamp = in.readString();
+        String branch = in.readString();
+        int depth = in.readVarInt();
+        int parentCount = in.readVarInt();
+        List<String> parents = new ArrayList<>(parentCount);
+        for (int i = 0; i < parentCount; i++) {
+            parents.add(in.readId());
+        }
+        Map<String, String> tracked = format == Codec.FULL_PATH_FORMAT ? in.readPathMap()
+                : in.readPathIds(PathTable.of(gitletDir));
+        return new Commit(id, message, timestamp, branch, depth, parents, tracked);
     }
 
     /**
@@ -53,28 +166,23 @@ public class Commit implements Serializable {
      * does not reference an existing Commit.
      */
     public static Commit getCommit(String id, File gitletDir) {
-        String folderName = id.substring(0, 2);
-        String fileName = id.substring(2);
-        File objects = join(gitletDir, "objects");
-        File folder = join(objects, folderName);
-        if (!folder.exists()) {
+        File commitFile = objectFile(id, gitletDir);
+        if (commitFile == null) {
             return null;
         }
-        File commitFile = join(folder, fileName);
-        if (fileName.length() < UID_LENGTH - 2) {
-            List<String> containedCommits = plainFilenamesIn(folder);
-            assert containedCommits != null;
-            for (String commitId : containedCommits) {
-                if (commitId.startsWith(fileName)) {
-                    commitFile = join(folder, commitId);
-                    break;
-                }
+        RepositoryCache cache = RepositoryCache.of(gitletDir);
+        String key = commitFile.getAbsolutePath();
+        Commit c = cache.commit(key);
+        if (c == null) {
+            c = decode(readContents(commitFile), gitletDir);
+            if (c == null) {
+                return null;
             }
+            c.commitPath = commitFile;
+            cache.remember(key, c);
         }
-        if (!commitFile.exists()) {
-            return null;
-        }
-        return readObject(commitFile, Commit.class);
+        c.boundary = Shallow.isBoundary(c.id, gitletDir);
+        return c;
     }
 
     /**
@@ -106,34 +214,60 @@ public class Commit implements Serializable {
     }
 
     /**
-     * Restores the files tracked by this Commit. Used for checkout.
+     * Restores the files tracked by this Commit in repository gitletDir. Used
+     * for checkout. Files outside the sparse-checkout patterns are not
+     * materialized.
      */
-    public void restoreTrackedFiles() {
-        for (String blobId : tracked.values()) {
-            Blob b = Blob.getBlob(blobId, Repository.GITLET_DIR);
-            assert b != null;
-            writeContents(b.getSource(), (Object) b.getContent());
+    public void restoreTrackedFiles(SparseCheckout sparse, File gitletDir) {
+        // A partial repository fetches the blobs of the checked-out files in one batch.
+        List<String> blobIds = new ArrayList<>();
+        for (Map.Entry<String, String> entry : tracked.entrySet()) {
+            if (sparse.includes(entry.getKey())) {
+                blobIds.add(entry.getValue());
+            }
+        }
+        Promisor.fetch(blobIds, gitletDir);
+        for (Map.Entry<String, String> entry : tracked.entrySet()) {
+            if (!sparse.includes(entry.getKey())) {
+                continue;
+            }
+            boolean restored = Blob.restore(entry.getValue(), gitletDir,
+                    new File(entry.getKey()));
+            assert restored;
         }
     }
 
     /**
-     * Deletes any files not tracked by this Commit. Used for checkout.
+     * Deletes any files of repository gitletDir not tracked by this Commit.
+     * Used for checkout.
      */
-    public void deleteUntrackedFiles() {
-        Commit head = getCommit(readContentsAsString(Repository.HEAD), Repository.GITLET_DIR);
+    public void deleteUntrackedFiles(SparseCheckout sparse, File gitletDir) {
+        Commit head = getHeadCommit(gitletDir);
         assert head != null;
         for (String filePath : head.getTracked().keySet()) {
-            if (!getTracked().containsKey(filePath)) {
-                String fileName = new File(filePath).getName();
-                File f = join(Repository.CWD, fileName);
-                f.delete();
+            if (!getTracked().containsKey(filePath) && sparse.includes(filePath)) {
+                new File(filePath).delete();
             }
         }
     }
 
+    /**
+     * Returns a copy of this commit, with the same id, on branch branchName in
+     * another repository. Tracked files are moved from the working directory
+     * fromWorkTree to the same relative paths in toWorkTree.
+     */
+    public Commit rebase(String branchName, File fromWorkTree, File toWorkTree) {
+        Map<String, String> newTracked = new HashMap<>();
+        for (Map.Entry<String, String> entry : tracked.entrySet()) {
+            newTracked.put(rebasePath(entry.getKey(), fromWorkTree, toWorkTree), entry.getValue());
+        }
+        return new Commit(this, newTracked, branchName);
+    }
+
     /**
      * Saves the commit object to the OBJECTS file in a directory named
-     * the first two characters of the commit id.
+     * the first two characters of the commit id. The file is written under a
+     * temporary name and renamed into place, so it is never seen half-written.
      */
     public void save(File gitletDir) {
         String folderName = id.substring(0, 2);
@@ -142,15 +276,25 @@ public class Commit implements Serializable {
         File folder = join(objects, folderName);
         folder.mkdir();
         File commitFile = join(folder, fileName);
-        writeObject(commitFile, this);
+        writeContentsAtomically(commitFile, (Object) encode(PathTable.of(gitletDir)));
         commitPath = commitFile;
+        RepositoryCache.of(gitletDir).remember(commitFile.getAbsolutePath(), this);
     }
 
     /**
-     * Returns a List of ids of this object's parents.
+     * Returns a List of ids of this object's parents. A commit on the boundary
+     * of a shallow repository has none, so history walks stop there.
      */
     public List<String> getParents() {
-        return parents;
+        return boundary ? List.of() : Collections.unmodifiableList(parents);
+    }
+
+    /**
+     * Returns the ids of all parents recorded in this commit, including those a
+     * shallow fetch left out.
+     */
+    public List<String> getRecordedParents() {
+        return Collections.unmodifiableList(parents);
     }
 
     public File getRepoDir() {
@@ -166,7 +310,7 @@ public class Commit implements Serializable {
     }
 
     public Map<String, String> getTracked() {
-        return tracked;
+        return Collections.unmodifiableMap(tracked);
     }
 
     public String getBranch() {
@@ -177,10 +321,6 @@ public class Commit implements Serializable {
         return id;
     }
 
-    public void setId(String newId) {
-        id = newId;
-    }
-
     public String getTimestamp() {
         return timestamp;
     }
@@ -0,0 +1,60 @@
+package gitlet;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A commit as GitletRepository reports it: a copy of its id, message,
+ * timestamp, parents and tracked files that later commands do not change.
+ * Tracked files are keyed by name, relative to the working directory.
+ *
+ * @author Jonathan Lu
+ */
+
+public final class CommitInfo {
+
+    private final String id;
+    private final String message;
+    private final String timestamp;
+    private final List<String> parents;
+    // Blob id of each tracked file, keyed by file name.
+    private final Map<String, String> tracked;
+
+    CommitInfo(Commit c, Map<String, String> tracked) {
+        this.id = c.getId();
+        this.message = c.getMessage();
+        this.timestamp = c.getTimestamp();
+        this.parents = List.copyOf(c.getParents());
+        this.tracked = Collections.unmodifiableMap(new TreeMap<>(tracked));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the ids of this commit's parents, the first parent first. A
+     * commit whose parents a shallow fetch left out has none.
+     */
+    public List<String> getParents() {
+        return parents;
+    }
+
+    /**
+     * Returns the blob id of each file this commit tracks, keyed by file name
+     * in name order.
+     */
+    public Map<String, String> getTracked() {
+        return tracked;
+    }
+}
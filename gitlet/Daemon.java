@@ -0,0 +1,258 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/**
+ * Runs gitlet commands for one repository in a long-lived JVM, so repeated
+ * commands skip JVM startup and reuse state already read from .gitlet.
+ * The daemon listens on a Unix domain socket in the .gitlet directory. A client
+ * sends the command's arguments (a count followed by each argument), and the
+ * daemon streams the command's output back and closes the connection.
+ * Requests are read through the selector as they arrive, so a client that
+ * connects and sends nothing delays neither other clients nor the idle
+ * timeout. Commands are run one at a time.
+ *
+ * @author Jonathan Lu
+ */
+
+public class Daemon {
+
+    // Seconds the daemon waits for a command before exiting.
+    static final long IDLE_TIMEOUT = 600;
+    // Largest request, in bytes, the daemon reads from a client.
+    private static final int MAX_REQUEST = 1 << 20;
+
+    /**
+     * Returns the socket the daemon of repository gitletDir listens on.
+     */
+    static File socket(File gitletDir) {
+        return join(gitletDir, "daemon.sock");
+    }
+
+    /**
+     * Serves commands for the given repository until nothing arrives for
+     * idleSeconds, which must be positive, or the repository is removed.
+     */
+    static void serve(GitletRepository repository, long idleSeconds) {
+        File socket = socket(repository.gitletDir());
+        if (socket.exists()) {
+            try {
+                SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath())).close();
+                exit("A daemon is already running for this repository.");
+            } catch (IOException excp) {
+                // The previous daemon exited without removing its socket.
+            }
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                Selector selector = Selector.open()) {
+            Files.deleteIfExists(socket.toPath());
+            server.bind(UnixDomainSocketAddress.of(socket.toPath()));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+
+            String fingerprint = fingerprint(repository);
+            while (selector.select(idleSeconds * 1000) > 0 && repository.gitletDir().exists()) {
+                // Arguments of each client whose request has arrived in full.
+                Map<SocketChannel, String[]> requests = new LinkedHashMap<>();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isAcceptable()) {
+                        SocketChannel client = server.accept();
+                        if (client != null) {
+                            client.configureBlocking(false);
+                            client.register(selector, SelectionKey.OP_READ,
+                                    ByteBuffer.allocate(256));
+                        }
+                    } else if (key.isReadable()) {
+                        String[] args = readRequest(key);
+                        if (args != null) {
+                            key.cancel();
+                            requests.put((SocketChannel) key.channel(), args);
+                        }
+                    }
+                }
+                if (requests.isEmpty()) {
+                    continue;
+                }
+                // Deregisters the cancelled keys, so their channels can block again.
+                selector.selectNow();
+                selector.selectedKeys().clear();
+                for (Map.Entry<SocketChannel, String[]> request : requests.entrySet()) {
+                    // Another process changed the repository: never answer from old state.
+                    if (!fingerprint.equals(fingerprint(repository))) {
+                        repository.clearCaches();
+                    }
+                    try {
+                        handle(request.getKey(), request.getValue(), repository);
+                    } catch (IOException excp) {
+                        // The client went away; keep serving the others.
+                    }
+                    fingerprint = fingerprint(repository);
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                if (key.channel() != server) {
+                    key.channel().close();
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Could not run the daemon: %s", excp.getMessage());
+        } finally {
+            socket.delete();
+        }
+    }
+
+    /**
+     * Reads what has arrived of the request of the client of key, and returns
+     * its arguments once all of them have arrived, or else null. A client that
+     * hangs up or sends a malformed request is disconnected.
+     */
+    private static String[] readRequest(SelectionKey key) {
+        SocketChannel client = (SocketChannel) key.channel();
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+        try {
+            if (!buffer.hasRemaining()) {
+                if (buffer.capacity() >= MAX_REQUEST) {
+                    client.close();
+                    return null;
+                }
+                buffer = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_REQUEST))
+                        .put(buffer.flip());
+                key.attach(buffer);
+            }
+            if (client.read(buffer) < 0) {
+                client.close();
+                return null;
+            }
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(buffer.array(), 0, buffer.position()));
+            int count = in.readInt();
+            if (count < 0 || count > MAX_REQUEST / 2) {
+                client.close();
+                return null;
+            }
+            String[] args = new String[count];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+            return args;
+        } catch (EOFException excp) {
+            // The rest of the request has not arrived yet.
+            return null;
+        } catch (IOException excp) {
+            try {
+                client.close();
+            } catch (IOException ignored) {
+                // The client is gone either way.
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Runs one client's command with its output sent back to the client.
+     */
+    private static void handle(SocketChannel client, String[] args,
+            GitletRepository repository) throws IOException {
+        PrintStream stdout = System.out;
+        try (client) {
+            client.configureBlocking(true);
+            PrintStream out = new PrintStream(Channels.newOutputStream(client), false);
+            System.setOut(out);
+            try {
+                Main.run(args, repository);
+            } catch (RuntimeException | AssertionError excp) {
+                // A failed command must not take the daemon down with it.
+                repository.clearCaches();
+                out.println(excp);
+            }
+            out.flush();
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    /**
+     * Forwards the command in ARGS to a running daemon of repository gitletDir
+     * and prints its output. Returns false if the command should run in this
+     * process instead, because no daemon is listening or the command must not
+     * be forwarded.
+     */
+    static boolean forward(String[] args, File gitletDir) {
+        File socket = socket(gitletDir);
+        if (args.length == 0 || !socket.exists()
+                || args[0].equals("init") || args[0].equals("clone") || args[0].equals("daemon")
+                || args[0].equals("batch") || args[0].equals("fast-import")
+                || args[0].equals("serve")) {
+            return false;
+        }
+        SocketChannel daemon;
+        try {
+            daemon = SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath()));
+        } catch (IOException excp) {
+            // The daemon exited without removing its socket.
+            return false;
+        }
+        try (daemon) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(daemon));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            InputStream in = Channels.newInputStream(daemon);
+            in.transferTo(System.out);
+            System.out.flush();
+            return true;
+        } catch (IOException excp) {
+            System.out.println("Lost connection to the daemon: " + excp.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Returns a summary of the modification times and sizes of the state files
+     * of the given repository whose changes by other processes make cached
+     * state stale.
+     */
+    private static String fingerprint(GitletRepository repository) throws IOException {
+        File gitletDir = repository.gitletDir();
+        File[] watched = {
+            join(gitletDir, "staging"), join(gitletDir, "HEAD"), join(gitletDir, "branches"),
+            join(gitletDir, "branches", "active branch"), join(gitletDir, "packed-refs"),
+            join(gitletDir, "sparse-checkout"), join(gitletDir, "shallow"),
+        };
+        StringBuilder fingerprint = new StringBuilder();
+        for (File f : watched) {
+            if (f.exists()) {
+                fingerprint.append(Files.getLastModifiedTime(f.toPath()))
+                        .append(':').append(f.length());
+            }
+            fingerprint.append(';');
+        }
+        return fingerprint.toString();
+    }
+}
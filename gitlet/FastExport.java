@@ -0,0 +1,163 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * Writes the history reachable from a set of branches as a stream that
+ * FastImport can read. Commits are written parents first, each with the files
+ * it changed relative to its first parent, followed by a reset for each branch.
+ * The initial commit is shared by every repository, so it is referenced by id
+ * and never written. Output is written as the history is walked; only the ids
+ * of the commits written so far are kept in memory.
+ *
+ * @author Jonathan Lu
+ */
+
+public class FastExport {
+
+    private final Repository repository;
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    // Marks of the commits written so far, keyed by commit id.
+    private final Map<String, Integer> marks = new HashMap<>();
+
+    /**
+     * Creates an export of the given repository to the stream out.
+     */
+    public FastExport(OutputStream out, Repository repository) {
+        this.repository = repository;
+        this.out = new BufferedOutputStream(out, 64 * 1024);
+        this.channel = Channels.newChannel(this.out);
+    }
+
+    /**
+     * Exports the given branches, or every branch if none are given.
+     */
+    public void run(List<String> branches) {
+        if (branches.isEmpty()) {
+            branches = Branch.branchNames(repository.gitletDir);
+        }
+        List<Branch> tips = new ArrayList<>();
+        for (String name : branches) {
+            Branch b = getBranch(name, repository.gitletDir);
+            if (b == null) {
+                exit("A branch with that name does not exist.");
+            }
+            tips.add(b);
+        }
+        try {
+            for (Branch tip : tips) {
+                exportHistory(tip);
+            }
+            for (Branch tip : tips) {
+                write("reset " + tip.getName() + "\nfrom " + ref(tip.getHeadId()) + "\n\n");
+            }
+            write("done\n");
+            out.flush();
+        } catch (IOException excp) {
+            throw error("Could not write export: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Writes every commit reachable from the branch's head that has not been
+     * written yet, parents before children.
+     */
+    private void exportHistory(Branch tip) throws IOException {
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(tip.getHeadId());
+        while (!pending.isEmpty()) {
+            String id = pending.peek();
+            Commit c = Commit.getCommit(id, repository.gitletDir);
+            assert c != null;
+            if (marks.containsKey(id) || c.getParents().isEmpty()) {
+                pending.pop();
+                continue;
+            }
+            // Parents are written first; revisit this commit once they are.
+            boolean parentsWritten = true;
+            for (String parentId : c.getParents()) {
+                if (!marks.containsKey(parentId) && !isInitial(parentId)) {
+                    pending.push(parentId);
+                    parentsWritten = false;
+                }
+            }
+            if (parentsWritten) {
+                pending.pop();
+                exportCommit(c, tip.getName());
+            }
+        }
+    }
+
+    /**
+     * Writes one commit and the files it changed relative to its first parent.
+     */
+    private void exportCommit(Commit c, String branch) throws IOException {
+        int mark = marks.size() + 1;
+        marks.put(c.getId(), mark);
+        byte[] message = c.getMessage().getBytes(StandardCharsets.UTF_8);
+        StringBuilder header = new StringBuilder();
+        header.append("commit ").append(branch).append("\n");
+        header.append("mark :").append(mark).append("\n");
+        header.append("date ").append(c.getTimestamp()).append("\n");
+        header.append("data ").append(message.length).append("\n");
+        write(header.toString());
+        out.write(message);
+        write("\nfrom " + ref(c.getParents().get(0)) + "\n");
+        for (String parentId : c.getParents().subList(1, c.getParents().size())) {
+            write("merge " + ref(parentId) + "\n");
+        }
+
+        Commit parent = Commit.getCommit(c.getParents().get(0), repository.gitletDir);
+        assert parent != null;
+        Map<String, String> parentTracked = parent.getTracked();
+        for (Map.Entry<String, String> entry : new TreeMap<>(c.getTracked()).entrySet()) {
+            if (entry.getValue().equals(parentTracked.get(entry.getKey()))) {
+                continue;
+            }
+            long length = Blob.contentLength(entry.getValue(), repository.gitletDir);
+            write("M " + relativePath(entry.getKey()) + "\ndata " + length + "\n");
+            Blob.transferContent(entry.getValue(), repository.gitletDir, channel);
+            write("\n");
+        }
+        for (String filePath : new TreeSet<>(parentTracked.keySet())) {
+            if (!c.getTracked().containsKey(filePath)) {
+                write("D " + relativePath(filePath) + "\n");
+            }
+        }
+        write("\n");
+    }
+
+    /**
+     * Returns how the stream refers to the commit with the given id: its mark if
+     * it was written, otherwise its id.
+     */
+    private String ref(String id) {
+        Integer mark = marks.get(id);
+        return mark == null ? id : ":" + mark;
+    }
+
+    private boolean isInitial(String id) {
+        Commit c = Commit.getCommit(id, repository.gitletDir);
+        return c != null && c.getParents().isEmpty();
+    }
+
+    private String relativePath(String filePath) {
+        Path path = new File(filePath).toPath();
+        return repository.workTree.toPath().relativize(path).toString();
+    }
+
+    private void write(String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,314 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * Reads a stream of commits and writes them straight into the object store,
+ * without going through the working directory or the staging area. The stream
+ * is a sequence of the following commands (blank lines are ignored):
+ *
+ * commit BRANCH
+ * mark :N                  (optional) names the commit for later from/merge
+ * date TIMESTAMP           (optional) defaults to the current time
+ * data LENGTH              followed by LENGTH bytes of commit message
+ * from REF                 (optional) first parent; defaults to the branch head
+ * merge REF                (optional) second parent
+ * M PATH                   followed by "data LENGTH" and the file contents
+ * D PATH                   stops tracking PATH
+ *
+ * reset BRANCH             followed by "from REF", points BRANCH at REF
+ * checkpoint               writes the branches updated so far
+ * done                     ends the stream
+ *
+ * REF is either :N or a commit id. Paths are relative to the working directory.
+ * File contents are hashed and written to their object files as they are read,
+ * so memory use does not depend on file or history size.
+ *
+ * @author Jonathan Lu
+ */
+
+public class FastImport {
+
+    // Size of the buffer used to copy file contents into the object store.
+    private static final int COPY_BUFFER = 64 * 1024;
+
+    private final Repository repository;
+    private final InputStream in;
+    private final DateFormat dateFormat = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
+    // Commit ids of the marks seen so far.
+    private final Map<String, String> marks = new HashMap<>();
+    // Head commits of the branches updated so far.
+    private final Map<String, Commit> branchHeads = new TreeMap<>();
+    private String pushedBack;
+    private int commitCount;
+
+    /**
+     * Creates an import of the stream in into the given repository.
+     */
+    public FastImport(InputStream in, Repository repository) {
+        this.repository = repository;
+        this.in = new BufferedInputStream(in, COPY_BUFFER);
+    }
+
+    /**
+     * Imports every command in the stream, then updates the imported branches.
+     * Returns the number of commits imported.
+     */
+    public int run() {
+        String line;
+        while ((line = nextCommand()) != null) {
+            if (line.startsWith("commit ")) {
+                readCommit(line.substring("commit ".length()));
+            } else if (line.startsWith("reset ")) {
+                String branch = line.substring("reset ".length());
+                String from = nextCommand();
+                if (from == null || !from.startsWith("from ")) {
+                    throw error("Expected from after reset %s.", branch);
+                }
+                branchHeads.put(branch, resolve(from.substring("from ".length())));
+            } else if (line.equals("checkpoint")) {
+                updateBranches();
+            } else if (line.equals("done")) {
+                break;
+            } else {
+                throw error("Unsupported fast-import command: %s", line);
+            }
+        }
+        updateBranches();
+        return commitCount;
+    }
+
+    /**
+     * Reads the body of a commit to the given branch and saves the commit.
+     */
+    private void readCommit(String branch) {
+        String mark = null;
+        String timestamp = null;
+        String message = null;
+        List<String> parents = new ArrayList<>();
+        Map<String, String> tracked = null;
+
+        String line;
+        while ((line = nextCommand()) != null) {
+            if (line.startsWith("mark ")) {
+                mark = line.substring("mark ".length());
+            } else if (line.startsWith("date ")) {
+                timestamp = line.substring("date ".length());
+            } else if (line.startsWith("data ")) {
+                message = new String(readData(line, "the commit message"),
+                        StandardCharsets.UTF_8);
+            } else if (line.startsWith("from ") || line.startsWith("merge ")) {
+                Commit parent = resolve(line.substring(line.indexOf(' ') + 1));
+                parents.add(parent.getId());
+                if (tracked == null) {
+                    tracked = new HashMap<>(parent.getTracked());
+                }
+            } else if (line.startsWith("M ") || line.startsWith("D ")) {
+                if (tracked == null) {
+                    Commit head = currentHead(branch);
+                    parents.add(head.getId());
+                    tracked = new HashMap<>(head.getTracked());
+                }
+                String filePath = getFile(line.substring(2), repository.workTree).getPath();
+                if (line.startsWith("M ")) {
+                    tracked.put(filePath, writeBlob(new File(filePath)));
+                } else {
+                    tracked.remove(filePath);
+                }
+            } else {
+                pushedBack = line;
+                break;
+            }
+        }
+        if (message == null) {
+            throw error("Commit to %s has no message.", branch);
+        }
+        if (parents.isEmpty()) {
+            Commit head = currentHead(branch);
+            parents.add(head.getId());
+            tracked = new HashMap<>(head.getTracked());
+        }
+        if (timestamp == null) {
+            timestamp = dateFormat.format(new Date());
+        }
+
+        Commit first = Commit.getCommit(parents.get(0), repository.gitletDir);
+        assert first != null;
+        Commit c = new Commit(message, parents, tracked, timestamp, first.getDepth() + 1,
+                branch, repository.gitletDir);
+        if (Utils.objectFile(c.getId(), repository.gitletDir) == null) {
+            c.save(repository.gitletDir);
+            buildGlobalLog(c, repository.gitletDir);
+        }
+        if (mark != null) {
+            marks.put(mark, c.getId());
+        }
+        branchHeads.put(branch, c);
+        commitCount += 1;
+    }
+
+    /**
+     * Reads the data block that follows an M command and stores it as the blob
+     * of the given file. Returns the blob id.
+     */
+    private String writeBlob(File source) {
+        String header = nextCommand();
+        if (header == null || !header.startsWith("data ")) {
+            throw error("Expected data for %s.", source.getPath());
+        }
+        long length = dataLength(header, source.getPath(), Long.MAX_VALUE);
+        MessageDigest md = HashAlgorithm.of(repository.gitletDir).newDigest();
+        md.update(source.getPath().getBytes(StandardCharsets.UTF_8));
+
+        File objects = repository.objectsDir;
+        File temp = null;
+        try {
+            temp = File.createTempFile("import", ".tmp", objects);
+            try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+                out.write(Blob.rawHeader(source));
+                byte[] buffer = new byte[COPY_BUFFER];
+                long remaining = length;
+                while (remaining > 0) {
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (n < 0) {
+                        throw error("Unexpected end of data for %s.", source.getPath());
+                    }
+                    md.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                    remaining -= n;
+                }
+            }
+            String id = toHex(md.digest());
+            File folder = join(objects, id.substring(0, 2));
+            folder.mkdir();
+            File blobFile = join(folder, id.substring(2));
+            if (!blobFile.exists()) {
+                Files.move(temp.toPath(), blobFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            return id;
+        } catch (IOException excp) {
+            throw error("Could not store %s: %s", source.getPath(), excp.getMessage());
+        } finally {
+            // Left behind unless it became the blob, including when the stream ends early.
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the commit named by REF, which is a mark or a commit id.
+     */
+    private Commit resolve(String ref) {
+        String id = ref.startsWith(":") ? marks.get(ref) : ref;
+        Commit c = id == null ? null : Commit.getCommit(id, repository.gitletDir);
+        if (c == null) {
+            throw error("No commit named %s.", ref);
+        }
+        return c;
+    }
+
+    /**
+     * Returns the current head of the given branch. A branch that does not exist
+     * yet starts at the initial commit.
+     */
+    private Commit currentHead(String branch) {
+        if (branchHeads.containsKey(branch)) {
+            return branchHeads.get(branch);
+        }
+        Branch b = getBranch(branch, repository.gitletDir);
+        Commit head = b != null ? b.getHead(repository.gitletDir)
+                : getInitialCommit(repository.gitletDir);
+        assert head != null;
+        return head;
+    }
+
+    /**
+     * Points every branch updated so far at its imported head. If the active
+     * branch moved, HEAD and the tracked files of the staging area follow it;
+     * the working directory is left untouched.
+     */
+    private void updateBranches() {
+        String activeBranch = getActiveBranchName(repository.gitletDir);
+        for (Map.Entry<String, Commit> entry : branchHeads.entrySet()) {
+            new Branch(entry.getKey(), entry.getValue().getId()).save(repository.gitletDir);
+            if (entry.getKey().equals(activeBranch)) {
+                setHead(entry.getValue().getId(), repository.gitletDir);
+                repository.staging().setTracked(entry.getValue().getTracked());
+                repository.staging().save();
+            }
+        }
+    }
+
+    /**
+     * Reads the bytes of the data block for name whose "data LENGTH" line is
+     * given.
+     */
+    private byte[] readData(String header, String name) {
+        int length = (int) dataLength(header, name, Integer.MAX_VALUE);
+        try {
+            byte[] data = in.readNBytes(length);
+            if (data.length < length) {
+                throw error("Unexpected end of data.");
+            }
+            return data;
+        } catch (IOException excp) {
+            throw error("Could not read data: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the length given by the "data LENGTH" line of the data block for
+     * name, which must not be more than max.
+     */
+    private static long dataLength(String header, String name, long max) {
+        String length = header.substring("data ".length()).trim();
+        if (!length.matches("\\d{1,18}") || Long.parseLong(length) > max) {
+            throw error("Expected data for %s.", name);
+        }
+        return Long.parseLong(length);
+    }
+
+    /**
+     * Returns the next non-blank line of the stream, or null at the end.
+     */
+    private String nextCommand() {
+        if (pushedBack != null) {
+            String line = pushedBack;
+            pushedBack = null;
+            return line;
+        }
+        try {
+            while (true) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                int b;
+                while ((b = in.read()) != -1 && b != '\n') {
+                    line.write(b);
+                }
+                if (b == -1 && line.size() == 0) {
+                    return null;
+                }
+                String command = line.toString(StandardCharsets.UTF_8).trim();
+                if (!command.isEmpty()) {
+                    return command;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Could not read commands: %s", excp.getMessage());
+        }
+    }
+}
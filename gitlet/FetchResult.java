@@ -0,0 +1,103 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What fetching branches of one remote did: the branches fetched and those
+ * that failed, the number and size of the objects written, how long it took,
+ * and how far earlier fetches that were interrupted had got. toString formats
+ * it the way the fetch command prints a summary.
+ *
+ * @author Jonathan Lu
+ */
+
+public final class FetchResult {
+
+    private final String remoteName;
+    private final List<String> fetched = new ArrayList<>();
+    // Error message, keyed by the name of the remote branch that failed.
+    private final Map<String, String> failures = new LinkedHashMap<>();
+    // Commits an interrupted fetch had checkpointed, keyed by local branch name.
+    private final Map<String, Integer> resumed = new LinkedHashMap<>();
+    private int objects;
+    private long bytes;
+    private long nanos;
+
+    FetchResult(String remoteName) {
+        this.remoteName = remoteName;
+    }
+
+    /* BUILDING, USED BY REPOSITORY */
+
+    void addFetched(String branchName, Journal journal) {
+        fetched.add(branchName);
+        objects += journal.objects();
+        bytes += journal.bytes();
+        if (journal.resumedCommits() > 0) {
+            resumed.put(remoteName + '-' + branchName, journal.resumedCommits());
+        }
+    }
+
+    void addFailure(String branchName, String message) {
+        failures.put(branchName, message);
+    }
+
+    void setNanos(long nanos) {
+        this.nanos = nanos;
+    }
+
+    /* GETTERS */
+
+    public String getRemoteName() {
+        return remoteName;
+    }
+
+    public List<String> getFetched() {
+        return Collections.unmodifiableList(fetched);
+    }
+
+    /**
+     * Returns the error message of each branch that could not be fetched,
+     * keyed by branch name.
+     */
+    public Map<String, String> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Returns, for each branch whose fetch resumed an interrupted one, the
+     * number of commits the interrupted fetch had written, keyed by the name
+     * of the local branch [remote name]-[branch name].
+     */
+    public Map<String, Integer> getResumed() {
+        return Collections.unmodifiableMap(resumed);
+    }
+
+    public int getObjects() {
+        return objects;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("%s: fetched %d branches, %d objects (%d bytes) in %.2f s.",
+                remoteName, fetched.size(), objects, bytes, nanos / 1e9));
+        for (Map.Entry<String, String> failure : failures.entrySet()) {
+            summary.append("\n  failed ").append(failure.getKey()).append(": ")
+                    .append(failure.getValue());
+        }
+        return summary.toString();
+    }
+}
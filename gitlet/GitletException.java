@@ -6,7 +6,7 @@ package gitlet;
  * 
  * @author P. N. Hilfinger
  */
-class GitletException extends RuntimeException {
+public class GitletException extends RuntimeException {
     /** A GitletException MSG as its message. */
     GitletException(String msg) {
         super(msg);
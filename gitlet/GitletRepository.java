@@ -0,0 +1,407 @@
+package gitlet;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/**
+ * The API for using Gitlet from another program. Each GitletRepository works
+ * on the repository in one working directory and holds its own state, so one
+ * JVM can open any number of repositories, and the working directory of the
+ * process does not matter. Main is a command-line wrapper around this class;
+ * the package-private methods serve its other commands.
+ *
+ * Methods return what a command produces instead of printing it, and report
+ * failures as a GitletException whose message is the one the command line
+ * prints; nothing here ends the process. Commits are returned as CommitInfo
+ * copies, which later commands do not change. File names are relative to the
+ * working directory. Calls on one GitletRepository must not overlap, but
+ * different repositories may be used from different threads. State read from
+ * a repository is kept in memory until close, and nothing else is kept once
+ * every GitletRepository on it is closed.
+ *
+ * @author Jonathan Lu
+ */
+
+public final class GitletRepository implements AutoCloseable {
+
+    private final Repository repository;
+
+    private GitletRepository(Repository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Opens the repository in the directory workTree.
+     */
+    public static GitletRepository open(Path workTree) {
+        Repository repository = new Repository(workTree.toFile());
+        return start(repository, repository::exists);
+    }
+
+    /**
+     * Returns the repository in the directory workTree, which need not exist
+     * yet. Each command checks for it as the command line does.
+     */
+    static GitletRepository at(Path workTree) {
+        return new GitletRepository(new Repository(workTree.toFile()));
+    }
+
+    /**
+     * Creates a repository with SHA-1 object ids in the directory workTree,
+     * creating the directory if needed, and opens it.
+     */
+    public static GitletRepository init(Path workTree) {
+        return init(workTree, HashAlgorithm.SHA1);
+    }
+
+    /**
+     * Creates a repository whose objects are named with the given algorithm in
+     * the directory workTree, creating the directory if needed, and opens it.
+     */
+    public static GitletRepository init(Path workTree, HashAlgorithm algorithm) {
+        Repository repository = new Repository(workTree.toFile());
+        return start(repository, () -> {
+            repository.workTree.mkdirs();
+            repository.init(algorithm);
+        });
+    }
+
+    /**
+     * Copies the repository in the directory source into the new directory
+     * target, as the clone command does, and opens the copy.
+     */
+    public static GitletRepository clone(Path source, Path target) {
+        return clone(source, target, false);
+    }
+
+    /**
+     * Copies the repository in the directory source into the new directory
+     * target and opens the copy. With blobless, only the blobs of the
+     * checked-out files are copied, and the rest are fetched from source when
+     * they are needed.
+     */
+    public static GitletRepository clone(Path source, Path target, boolean blobless) {
+        Repository repository = new Repository(target.toFile());
+        return start(repository, () -> repository.clone(source.toAbsolutePath().toString(),
+                repository.workTree.getPath(), blobless));
+    }
+
+    /**
+     * Runs setup on repository and returns a GitletRepository for it, or
+     * releases the repository if setup fails.
+     */
+    private static GitletRepository start(Repository repository, Runnable setup) {
+        try {
+            setup.run();
+        } catch (RuntimeException excp) {
+            repository.close();
+            throw excp;
+        }
+        return new GitletRepository(repository);
+    }
+
+    /**
+     * Writes any pending changes and releases the state kept in memory for
+     * this repository. The GitletRepository cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        repository.close();
+    }
+
+    public Path getWorkTree() {
+        return repository.workTree.toPath();
+    }
+
+    /* REPOSITORY STATE, USED BY MAIN AND DAEMON */
+
+    File gitletDir() {
+        return repository.gitletDir;
+    }
+
+    /**
+     * Ends the current command unless the repository exists.
+     */
+    void checkExists() {
+        repository.exists();
+    }
+
+    /**
+     * Creates the repository, naming its objects with the given algorithm.
+     */
+    void create(HashAlgorithm algorithm) {
+        repository.init(algorithm);
+    }
+
+    /**
+     * Sets whether staging changes are written only by flush.
+     */
+    void setDeferSaves(boolean defer) {
+        repository.setDeferSaves(defer);
+    }
+
+    /**
+     * Writes any deferred staging changes.
+     */
+    void flush() {
+        repository.flush();
+    }
+
+    /**
+     * Drops the repository state read so far, so it is read again on next use.
+     */
+    void clearCaches() {
+        repository.clearCaches();
+    }
+
+    /* FILES AND COMMITS */
+
+    public void add(String fileName) {
+        repository.add(fileName);
+    }
+
+    public void remove(String fileName) {
+        repository.rm(fileName);
+    }
+
+    /**
+     * Commits the staged changes and returns the id of the new commit.
+     */
+    public String commit(String message) {
+        repository.commit(message, null);
+        return getHeadId();
+    }
+
+    public String getHeadId() {
+        return Utils.getHeadId(repository.gitletDir);
+    }
+
+    /**
+     * Returns the commit with the given id or unique id prefix.
+     */
+    public CommitInfo getCommit(String id) {
+        Commit c = Commit.getCommit(id, repository.gitletDir);
+        if (c == null) {
+            throw error("No commit with that id exists.");
+        }
+        return info(c);
+    }
+
+    /**
+     * Returns the commits from the head commit back to the initial commit,
+     * following first parents only, as the log command lists them.
+     */
+    public List<CommitInfo> log() {
+        List<CommitInfo> log = new ArrayList<>();
+        Commit c = getHeadCommit(repository.gitletDir);
+        while (c != null) {
+            log.add(info(c));
+            c = c.getParents().isEmpty() ? null
+                    : Commit.getCommit(c.getParents().get(0), repository.gitletDir);
+        }
+        return log;
+    }
+
+    /**
+     * Returns the log as the log command prints it.
+     */
+    String formatLog() {
+        return repository.log();
+    }
+
+    /**
+     * Returns every commit made in this repository, in the order they were
+     * made, as the global-log command prints them.
+     */
+    public String globalLog() {
+        return repository.globalLog();
+    }
+
+    /**
+     * Returns the ids of all commits with the given message.
+     */
+    public List<String> find(String message) {
+        return repository.find(message);
+    }
+
+    public Status status() {
+        return repository.status();
+    }
+
+    public void reset(String commitId) {
+        repository.reset(commitId);
+    }
+
+    /**
+     * Restores the given file as the head commit has it.
+     */
+    public void checkoutFile(String fileName) {
+        repository.checkoutFile(fileName);
+    }
+
+    /**
+     * Restores the given file as the commit with the given id has it.
+     */
+    public void checkoutFile(String commitId, String fileName) {
+        repository.checkoutCommit(commitId, fileName);
+    }
+
+    /**
+     * Runs the sparse-checkout action "set", "disable" or "list", and returns
+     * the patterns in effect afterwards.
+     */
+    List<String> sparseCheckout(String action, String[] patterns) {
+        return repository.sparseCheckout(action, patterns);
+    }
+
+    /* BRANCHES */
+
+    public List<String> getBranches() {
+        return Branch.branchNames(repository.gitletDir);
+    }
+
+    public String getActiveBranch() {
+        return getActiveBranchName(repository.gitletDir);
+    }
+
+    public void createBranch(String name) {
+        repository.branch(name);
+    }
+
+    public void deleteBranch(String name) {
+        repository.rmbranch(name);
+    }
+
+    public void checkoutBranch(String name) {
+        repository.checkoutBranch(name);
+    }
+
+    public MergeResult merge(String branchName) {
+        return repository.merge(branchName);
+    }
+
+    void packRefs() {
+        repository.packRefs();
+    }
+
+    Reachability writeBitmaps() {
+        return repository.writeBitmaps();
+    }
+
+    /* REMOTES */
+
+    /**
+     * Adds a remote located at the given absolute path of a .gitlet directory
+     * or bundle file, or at a gitlet server URL.
+     */
+    public void addRemote(String remoteName, String location) {
+        repository.addRemote(remoteName, location);
+    }
+
+    public void removeRemote(String remoteName) {
+        repository.rmRemote(remoteName);
+    }
+
+    /**
+     * Fetches the given branch of a remote into the branch
+     * [remote name]-[branch name], and returns what it fetched.
+     */
+    public FetchResult fetch(String remoteName, String branchName) {
+        return repository.fetch(remoteName, branchName);
+    }
+
+    /**
+     * Fetches a branch as fetch does, limited as the fetch command's options
+     * limit it.
+     */
+    FetchResult fetch(String remoteName, String branchName, int depth, boolean deepen,
+            boolean blobless) {
+        return repository.fetch(remoteName, branchName, depth, deepen, blobless);
+    }
+
+    /**
+     * Fetches every branch of every remote and returns what was fetched from
+     * each remote.
+     */
+    List<FetchResult> fetchAll(int depth, boolean deepen, boolean blobless) {
+        return repository.fetchAll(depth, deepen, blobless);
+    }
+
+    /**
+     * Fetches the given branches of each remote, keyed by remote name, and
+     * returns what was fetched from each remote.
+     */
+    List<FetchResult> fetchBranches(Map<String, List<String>> branches, int depth,
+            boolean deepen, boolean blobless) {
+        return repository.fetchBranches(branches, depth, deepen, blobless);
+    }
+
+    public void push(String remoteName, String branchName) {
+        repository.push(remoteName, branchName);
+    }
+
+    /**
+     * Pushes the current branch to the given branch of each of the given
+     * remotes at once, and returns how each push ended.
+     */
+    public List<PushResult> push(List<String> remoteNames, String branchName) {
+        return repository.pushMirrors(remoteNames, branchName);
+    }
+
+    public MergeResult pull(String remoteName, String branchName) {
+        return repository.pull(remoteName, branchName);
+    }
+
+    /* IMPORT AND EXPORT */
+
+    /**
+     * Imports a fast-import stream and returns the number of commits imported.
+     */
+    int fastImport(InputStream in) {
+        return new FastImport(in, repository).run();
+    }
+
+    /**
+     * Writes the given branches, or every branch if none are given, as a
+     * fast-import stream.
+     */
+    void fastExport(OutputStream out, List<String> branches) {
+        new FastExport(out, repository).run(branches);
+    }
+
+    /**
+     * Writes the history of the given branch to a bundle file, leaving out the
+     * commit sinceId and its ancestors if it is not null.
+     */
+    void bundleCreate(String file, String branchName, String sinceId) {
+        repository.bundleCreate(file, branchName, sinceId);
+    }
+
+    /**
+     * Reads a bundle file into the repository and returns the head of each
+     * branch it holds, keyed by branch name.
+     */
+    Map<String, String> unbundle(String file) {
+        return repository.unbundle(file);
+    }
+
+    /**
+     * Returns a copy of commit c, with its files named relative to the
+     * working directory.
+     */
+    private CommitInfo info(Commit c) {
+        Map<String, String> tracked = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : c.getTracked().entrySet()) {
+            tracked.put(repository.displayName(entry.getKey()), entry.getValue());
+        }
+        return new CommitInfo(c, tracked);
+    }
+}
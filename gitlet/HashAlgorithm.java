@@ -0,0 +1,144 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The hash functions that name objects. A repository's object format is chosen
+ * when it is created and never changes: it is named in the object format file
+ * of the .gitlet directory, and a repository without one uses SHA-1, as every
+ * repository made by older versions of Gitlet does. Repositories of different
+ * formats cannot exchange objects.
+ *
+ * Each thread keeps one MessageDigest per algorithm and reuses it, since
+ * MessageDigest.getInstance looks the provider up on every call.
+ *
+ * @author Jonathan Lu
+ */
+
+public enum HashAlgorithm {
+    SHA1("sha1", "SHA-1", 20),
+    SHA256("sha256", "SHA-256", 32);
+
+    private final String formatName;
+    private final String digestName;
+    private final int length;
+    private final ThreadLocal<MessageDigest> digests;
+
+    HashAlgorithm(String formatName, String digestName, int length) {
+        this.formatName = formatName;
+        this.digestName = digestName;
+        this.length = length;
+        this.digests = ThreadLocal.withInitial(this::newDigest);
+    }
+
+    /**
+     * Returns the object format of repository gitletDir.
+     */
+    static HashAlgorithm of(File gitletDir) {
+        RepositoryCache cache = RepositoryCache.of(gitletDir);
+        HashAlgorithm algorithm = cache.format();
+        if (algorithm == null) {
+            File formatFile = Utils.join(gitletDir, "object format");
+            algorithm = formatFile.exists()
+                    ? named(Utils.readContentsAsString(formatFile).trim()) : SHA1;
+            if (algorithm == null) {
+                throw Utils.error("This repository was written by a newer version of Gitlet.");
+            }
+            cache.setFormat(algorithm);
+        }
+        return algorithm;
+    }
+
+    /**
+     * Returns the algorithm with the given format name, or null if there is
+     * none.
+     */
+    static HashAlgorithm named(String formatName) {
+        for (HashAlgorithm algorithm : values()) {
+            if (algorithm.formatName.equals(formatName)) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Makes this the object format of the new repository gitletDir.
+     */
+    void save(File gitletDir) {
+        if (this != SHA1) {
+            Utils.writeContents(Utils.join(gitletDir, "object format"), formatName + "\n");
+        }
+        RepositoryCache.of(gitletDir).setFormat(this);
+    }
+
+    /**
+     * Exits unless repository otherDir has the same object format as
+     * repository gitletDir.
+     */
+    static void checkSame(File gitletDir, File otherDir) {
+        checkIdLength(gitletDir, of(otherDir).hexLength());
+    }
+
+    /**
+     * Exits unless ids of hexLength hex digits name objects in repository
+     * gitletDir.
+     */
+    static void checkIdLength(File gitletDir, int hexLength) {
+        if (of(gitletDir).hexLength() != hexLength) {
+            Utils.exit("The remote repository uses a different object format.");
+        }
+    }
+
+    /**
+     * Returns the hash of the concatenation of vals, which may be any mixture
+     * of byte arrays and Strings, as lowercase hex digits.
+     */
+    String hash(Object... vals) {
+        MessageDigest md = digests.get();
+        md.reset();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to hash");
+            }
+        }
+        return ObjectId.toHex(md.digest());
+    }
+
+    /**
+     * Returns a new MessageDigest, for hashing contents that are streamed
+     * rather than held in memory.
+     */
+    MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(digestName);
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support " + digestName);
+        }
+    }
+
+    /**
+     * Returns the number of bytes in a hash.
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Returns the number of hex digits in an object id.
+     */
+    int hexLength() {
+        return length * 2;
+    }
+
+    String formatName() {
+        return formatName;
+    }
+}
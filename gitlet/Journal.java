@@ -0,0 +1,208 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Records the progress of a fetch so an interrupted one can resume. Each fetch
+ * into a branch keeps a journal file named after the branch in the journal
+ * directory of .gitlet. The id of every object the fetch writes is appended to
+ * it, and every CHECKPOINT_INTERVAL commits the objects written so far are
+ * forced to disk and a checkpoint line is appended. The fetch moves its branch
+ * only after a final checkpoint, then deletes the journal.
+ *
+ * Nothing a fetch wrote is ever deleted. Every object file is written under a
+ * temporary name and renamed into place, so an interrupted fetch leaves only
+ * whole objects, and it writes them parents first, with each commit after the
+ * blobs it tracks, so every commit it left has its history and its files.
+ * Other fetches may already rely on those objects. The next fetch into the
+ * same branch negotiates from the refs again and skips the objects that are
+ * there; its journal only reports how far the interrupted one got. A fetch
+ * that fails closes its journal and keeps the file for the next one.
+ *
+ * @author Jonathan Lu
+ */
+
+public class Journal {
+
+    // Commits written between two checkpoints.
+    private static final int CHECKPOINT_INTERVAL = 256;
+
+    private final File journalFile;
+    private final File gitletDir;
+    private final FileChannel channel;
+    // Ids of the objects written since the last checkpoint.
+    private final List<String> pending = new ArrayList<>();
+    private int pendingCommits;
+    private int commits;
+    // Commits an interrupted fetch into the same branch had checkpointed.
+    private final int resumedCommits;
+    // Objects written by this fetch and their total size in bytes.
+    private int objects;
+    private long bytes;
+
+    private Journal(File journalFile, File gitletDir, FileChannel channel, int commits) {
+        this.journalFile = journalFile;
+        this.gitletDir = gitletDir;
+        this.channel = channel;
+        this.commits = commits;
+        this.resumedCommits = commits;
+    }
+
+    /**
+     * Starts the journal of a fetch into branch branchName of repository
+     * gitletDir, continuing the count of an interrupted fetch into the same
+     * branch, which resumedCommits reports.
+     */
+    static Journal open(String branchName, File gitletDir) {
+        File journalDir = Utils.join(gitletDir, "journal");
+        journalDir.mkdir();
+        File journalFile = Utils.join(journalDir, branchName);
+        int commits = journalFile.exists() ? checkpointedCommits(journalFile) : 0;
+        try {
+            FileChannel channel = FileChannel.open(journalFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            Journal journal = new Journal(journalFile, gitletDir, channel, commits);
+            journal.append("checkpoint " + commits);
+            channel.force(true);
+            return journal;
+        } catch (IOException excp) {
+            throw Utils.error("Could not write the fetch journal: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Records that the fetch wrote the object id. Every CHECKPOINT_INTERVAL
+     * commits, a checkpoint is taken.
+     */
+    void written(String id, boolean isCommit) {
+        pending.add(id);
+        objects += 1;
+        File objectFile = Utils.objectFile(id, gitletDir);
+        bytes += objectFile == null ? 0 : objectFile.length();
+        try {
+            append("+" + id);
+        } catch (IOException excp) {
+            throw Utils.error("Could not write the fetch journal: %s", excp.getMessage());
+        }
+        if (isCommit) {
+            commits += 1;
+            pendingCommits += 1;
+            if (pendingCommits == CHECKPOINT_INTERVAL) {
+                checkpoint();
+            }
+        }
+    }
+
+    /**
+     * Forces the objects written since the last checkpoint to disk, then
+     * records the checkpoint.
+     */
+    void checkpoint() {
+        try {
+            Set<File> folders = new HashSet<>();
+            for (String id : pending) {
+                File objectFile = Utils.objectFile(id, gitletDir);
+                if (objectFile != null) {
+                    force(objectFile);
+                    folders.add(objectFile.getParentFile());
+                }
+            }
+            for (File folder : folders) {
+                force(folder);
+            }
+            // The commits written refer to paths by their numbers in the path table.
+            PathTable.of(gitletDir).force();
+            append("checkpoint " + commits);
+            channel.force(true);
+        } catch (IOException excp) {
+            throw Utils.error("Could not write the fetch journal: %s", excp.getMessage());
+        }
+        pending.clear();
+        pendingCommits = 0;
+    }
+
+    /**
+     * Ends the journal of a fetch whose objects are all durable and whose
+     * branch has been moved.
+     */
+    void finish() {
+        close();
+        journalFile.delete();
+    }
+
+    /**
+     * Closes the journal file, keeping it so the next fetch into the branch
+     * can resume. Does nothing if the journal is already closed.
+     */
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException excp) {
+            // Everything written was either checkpointed or will be written again.
+        }
+    }
+
+    /**
+     * Returns the number of objects this fetch wrote.
+     */
+    int objects() {
+        return objects;
+    }
+
+    /**
+     * Returns the total size in bytes of the objects this fetch wrote.
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of commits that an interrupted fetch into the same
+     * branch had written by its last checkpoint, or 0 if there was none.
+     */
+    int resumedCommits() {
+        return resumedCommits;
+    }
+
+    /**
+     * Returns the number of commits an interrupted fetch had fetched by the
+     * last checkpoint recorded in its journal.
+     */
+    private static int checkpointedCommits(File journalFile) {
+        int commits = 0;
+        for (String line : Utils.readContentsAsString(journalFile).split("\n")) {
+            if (line.matches("checkpoint \\d{1,9}")) {
+                commits = Integer.parseInt(line.substring("checkpoint ".length()));
+            }
+        }
+        return commits;
+    }
+
+    private void append(String line) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * Forces the contents of file, or the entries of a directory, to disk.
+     */
+    private static void force(File file) throws IOException {
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            fc.force(true);
+        } catch (IOException excp) {
+            // Some platforms cannot open directories; their entries are synced with the files.
+            if (!file.isDirectory()) {
+                throw excp;
+            }
+        }
+    }
+}
@@ -1,12 +1,25 @@
 package gitlet;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Driver class for Gitlet, a subset of the Git version-control system.
  */
 public class Main {
 
     /**
-     * Stores controls for gitlet and accesses methods via Repository object.
+     * Stores controls for gitlet and accesses methods via GitletRepository.
      * Usage: java gitlet.Main ARGS, where ARGS contains
      * <COMMAND> <OPERAND1> <OPERAND2> ...
      *
@@ -14,49 +27,182 @@ public class Main {
      */
 
     public static void main(String[] args) {
+        Path workTree = Paths.get(System.getProperty("user.dir"));
+        if (Daemon.forward(args, workTree.resolve(".gitlet").toFile())) {
+            return;
+        }
+        // The repository in the working directory, which need not exist, is
+        // shared by the commands of a batch or a daemon.
+        try (GitletRepository repository = GitletRepository.at(workTree)) {
+            run(args, repository);
+        }
+    }
+
+    /**
+     * Runs the command in ARGS on the given repository, printing the message
+     * of the error it ends with, if any.
+     */
+    static void run(String[] args, GitletRepository repository) {
+        try {
+            dispatch(args, repository);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
+    /**
+     * Runs newline-delimited commands read from stdin in this process, sharing
+     * the repository state read by earlier lines. Arguments are separated by
+     * spaces and may be quoted. A failing line is reported with its line number
+     * and the batch continues. Staging changes are written at the end of the
+     * batch and at each "checkpoint" line.
+     */
+    static void runBatch(GitletRepository repository) {
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        repository.setDeferSaves(true);
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber += 1;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    String[] args = splitCommand(trimmed);
+                    switch (args[0]) {
+                        case "checkpoint" -> repository.flush();
+                        case "batch", "daemon" -> Utils.exit("Cannot run " + args[0]
+                                + " inside a batch.");
+                        default -> dispatch(args, repository);
+                    }
+                } catch (GitletException excp) {
+                    System.out.println("line " + lineNumber + ": " + excp.getMessage());
+                } catch (ArrayIndexOutOfBoundsException excp) {
+                    System.out.println("line " + lineNumber + ": Incorrect operands.");
+                } catch (RuntimeException excp) {
+                    System.out.println("line " + lineNumber + ": " + excp);
+                }
+            }
+        } catch (IOException excp) {
+            System.out.println("Could not read commands: " + excp.getMessage());
+        } finally {
+            repository.setDeferSaves(false);
+            repository.flush();
+        }
+    }
+
+    /**
+     * Splits a batch line into arguments. Arguments are separated by whitespace;
+     * single or double quotes group words into one argument, and a backslash
+     * escapes the next character inside double quotes.
+     */
+    static String[] splitCommand(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = new StringBuilder();
+        boolean inArg = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else if (c == '\\' && quote == '"' && i + 1 < line.length()) {
+                    arg.append(line.charAt(++i));
+                } else {
+                    arg.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inArg = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inArg) {
+                    args.add(arg.toString());
+                    arg.setLength(0);
+                    inArg = false;
+                }
+            } else {
+                arg.append(c);
+                inArg = true;
+            }
+        }
+        if (quote != 0) {
+            Utils.exit("Unterminated quote.");
+        }
+        if (inArg) {
+            args.add(arg.toString());
+        }
+        return args.toArray(new String[0]);
+    }
+
+    private static void dispatch(String[] args, GitletRepository r) {
 
-        Repository r = new Repository();
         if (args.length == 0) {
             System.out.println("Please enter a command.");
         } else {
             switch (args[0]) {
-                case "init" -> r.init();
+                case "init" -> {
+                    // init [--object-format=sha1|sha256]
+                    HashAlgorithm algorithm = HashAlgorithm.SHA1;
+                    if (args.length == 2 && args[1].startsWith("--object-format=")) {
+                        algorithm = HashAlgorithm.named(args[1].substring("--object-format=".length()));
+                        if (algorithm == null)
+                            Utils.exit("Unknown object format.");
+                    } else if (args.length != 1) {
+                        Utils.exit("Incorrect operands.");
+                    }
+                    r.create(algorithm);
+                }
+                case "clone" -> {
+                    // clone [--filter=blob:none] [source] [target]
+                    List<String> operands = new ArrayList<>(List.of(args).subList(1, args.length));
+                    boolean blobless = operands.remove("--filter=blob:none");
+                    if (operands.size() != 2)
+                        Utils.exit("Incorrect operands.");
+                    GitletRepository.clone(r.getWorkTree().resolve(operands.get(0)),
+                            r.getWorkTree().resolve(operands.get(1)), blobless).close();
+                }
                 case "add" -> {
-                    r.exists();
+                    r.checkExists();
                     r.add(args[1]);
                 }
                 case "commit" -> {
-                    r.exists();
+                    r.checkExists();
                     if (args.length == 1) {
                         System.out.println("Please enter a commit message.");
                     } else if (args.length == 2)
-                        r.commit(args[1], null);
+                        r.commit(args[1]);
                 }
                 case "rm" -> {
-                    r.exists();
-                    r.rm(args[1]);
+                    r.checkExists();
+                    r.remove(args[1]);
                 }
                 case "log" -> {
-                    r.exists();
-                    r.log();
+                    r.checkExists();
+                    System.out.println(r.formatLog());
                 }
                 case "global-log" -> {
-                    r.exists();
-                    r.globalLog();
+                    r.checkExists();
+                    System.out.println(r.globalLog());
                 }
                 case "find" -> {
-                    r.exists();
+                    r.checkExists();
                     if (args.length == 1) {
                         System.out.println("Enter a message to search for.");
-                    } else
-                        r.find(args[1]);
+                    } else {
+                        List<String> ids = r.find(args[1]);
+                        System.out.println(ids.isEmpty() ? "Found no commit with that message."
+                                : String.join("\n", ids));
+                    }
                 }
                 case "status" -> {
-                    r.exists();
-                    r.status();
+                    r.checkExists();
+                    System.out.println(r.status());
                 }
                 case "checkout" -> {
-                    r.exists();
+                    r.checkExists();
                     if (args.length == 2) {
                         r.checkoutBranch(args[1]);
                     }
@@ -68,51 +214,199 @@ public class Main {
                     if (args.length == 4) {
                         if (!args[2].equals("--"))
                             System.out.println("Incorrect operands.");
-                        Repository.checkoutCommit(args[1], args[3]);
+                        r.checkoutFile(args[1], args[3]);
                     }
                 }
                 case "branch" -> {
-                    r.exists();
-                    r.branch(args[1]);
+                    r.checkExists();
+                    r.createBranch(args[1]);
                 }
                 case "rm-branch" -> {
-                    r.exists();
-                    r.rmbranch(args[1]);
+                    r.checkExists();
+                    r.deleteBranch(args[1]);
                 }
                 case "reset" -> {
-                    r.exists();
+                    r.checkExists();
                     if (args.length != 2)
                         Utils.exit("Enter a commit id to move to.");
                     r.reset(args[1]);
                 }
                 case "merge" -> {
-                    r.exists();
+                    r.checkExists();
                     if (args.length != 2)
                         Utils.exit("Enter a branch to merge.");
-                    r.merge(args[1]);
+                    printMergeResult(r.merge(args[1]));
+                }
+                case "sparse-checkout" -> {
+                    r.checkExists();
+                    if (args.length < 2)
+                        Utils.exit("Incorrect operands.");
+                    List<String> patterns = r.sparseCheckout(args[1],
+                            Arrays.copyOfRange(args, 2, args.length));
+                    if (args[1].equals("list")) {
+                        patterns.forEach(System.out::println);
+                    }
+                }
+                case "pack-refs" -> {
+                    r.checkExists();
+                    r.packRefs();
+                }
+                case "write-bitmaps" -> {
+                    r.checkExists();
+                    Reachability index = r.writeBitmaps();
+                    System.out.println("Indexed " + index.size() + " commits with "
+                            + index.bitmapCount() + " bitmaps.");
                 }
                 case "add-remote" -> {
-                    r.exists();
+                    r.checkExists();
                     r.addRemote(args[1], args[2]);
                 }
                 case "rm-remote" -> {
-                    r.exists();
-                    r.rmRemote(args[1]);
+                    r.checkExists();
+                    r.removeRemote(args[1]);
                 }
                 case "fetch" -> {
-                    r.exists();
-                    r.fetch(args[1], args[2]);
+                    r.checkExists();
+                    // fetch [--depth N | --deepen N] [--filter=blob:none]
+                    //       (--all | [remote] [branch] [more branches]...)
+                    List<String> operands = new ArrayList<>(List.of(args).subList(1, args.length));
+                    boolean blobless = operands.remove("--filter=blob:none");
+                    int depth = 0;
+                    boolean deepen = false;
+                    if (operands.size() >= 2 && (operands.get(0).equals("--depth")
+                            || operands.get(0).equals("--deepen"))) {
+                        String value = operands.get(1);
+                        depth = value.matches("\\d{1,9}") ? Integer.parseInt(value) : 0;
+                        if (depth < 1)
+                            Utils.exit("Depth must be a positive number.");
+                        deepen = operands.get(0).equals("--deepen");
+                        operands = operands.subList(2, operands.size());
+                    }
+                    if (operands.equals(List.of("--all"))) {
+                        printFetchResults(r.fetchAll(depth, deepen, blobless), true);
+                    } else if (operands.size() == 2) {
+                        printFetchResults(List.of(r.fetch(operands.get(0), operands.get(1), depth,
+                                deepen, blobless)), false);
+                    } else if (operands.size() > 2) {
+                        List<String> branches = operands.subList(1, operands.size());
+                        printFetchResults(r.fetchBranches(Map.of(operands.get(0), branches),
+                                depth, deepen, blobless), true);
+                    } else {
+                        Utils.exit("Incorrect operands.");
+                    }
                 }
                 case "push" -> {
-                    r.exists();
-                    r.push(args[1], args[2]);
+                    r.checkExists();
+                    // push [remote] [more remotes]... [branch]
+                    if (args.length == 3) {
+                        r.push(args[1], args[2]);
+                    } else if (args.length > 3) {
+                        List<String> remotes = List.of(args).subList(1, args.length - 1);
+                        r.push(remotes, args[args.length - 1]).forEach(System.out::println);
+                    } else {
+                        Utils.exit("Incorrect operands.");
+                    }
                 }
                 case "pull" -> {
-                    r.exists();
-                    r.pull(args[1], args[2]);
+                    r.checkExists();
+                    printMergeResult(r.pull(args[1], args[2]));
+                }
+                case "fast-import" -> {
+                    r.checkExists();
+                    System.out.println("Imported " + r.fastImport(System.in) + " commits.");
+                }
+                case "fast-export" -> {
+                    r.checkExists();
+                    r.fastExport(System.out, Arrays.asList(args).subList(1, args.length));
+                }
+                case "batch" -> {
+                    r.checkExists();
+                    runBatch(r);
+                }
+                case "bundle" -> {
+                    r.checkExists();
+                    // bundle create [file] [branch] [--since commit] | bundle unbundle [file]
+                    if (args.length == 4 && args[1].equals("create")) {
+                        r.bundleCreate(args[2], args[3], null);
+                    } else if (args.length == 6 && args[1].equals("create")
+                            && args[4].equals("--since")) {
+                        r.bundleCreate(args[2], args[3], args[5]);
+                    } else if (args.length == 3 && args[1].equals("unbundle")) {
+                        r.unbundle(args[2]).forEach((name, headId) ->
+                                System.out.println(headId + " " + name));
+                    } else {
+                        Utils.exit("Incorrect operands.");
+                    }
+                }
+                case "serve" -> {
+                    // serve [--bind=address] [port]
+                    List<String> operands = new ArrayList<>(List.of(args).subList(1, args.length));
+                    InetAddress address = InetAddress.getLoopbackAddress();
+                    if (!operands.isEmpty() && operands.get(0).startsWith("--bind=")) {
+                        address = bindAddress(operands.remove(0).substring("--bind=".length()));
+                    }
+                    if (operands.size() > 1)
+                        Utils.exit("Incorrect operands.");
+                    int port = Transport.DEFAULT_PORT;
+                    if (operands.size() == 1) {
+                        port = operands.get(0).matches("\\d{1,5}")
+                                ? Integer.parseInt(operands.get(0)) : -1;
+                        if (port < 0 || port > 65535)
+                            Utils.exit("Incorrect operands.");
+                    }
+                    new Server(r.getWorkTree().toFile()).serve(port, address);
+                }
+                case "daemon" -> {
+                    r.checkExists();
+                    if (args.length > 2)
+                        Utils.exit("Incorrect operands.");
+                    long idleSeconds = Daemon.IDLE_TIMEOUT;
+                    if (args.length == 2) {
+                        idleSeconds = args[1].matches("\\d{1,9}") ? Long.parseLong(args[1]) : 0;
+                        if (idleSeconds < 1)
+                            Utils.exit("Incorrect operands.");
+                    }
+                    Daemon.serve(r, idleSeconds);
                 }
-                default -> System.out.println("No command with that name exists.");
+                default -> Utils.exit("No command with that name exists.");
             }
         }
     }
+
+    /**
+     * Prints which fetches resumed an interrupted one, then, with summary, what
+     * was fetched from each remote.
+     */
+    private static void printFetchResults(List<FetchResult> results, boolean summary) {
+        for (FetchResult result : results) {
+            result.getResumed().forEach((branchName, commits) -> System.out.println(
+                    "Resuming an interrupted fetch into " + branchName + " after " + commits
+                            + " commits."));
+        }
+        if (summary) {
+            results.forEach(System.out::println);
+        }
+    }
+
+    /**
+     * Prints how a merge ended, unless it was a plain merge.
+     */
+    private static void printMergeResult(MergeResult result) {
+        if (result == MergeResult.CONFLICTED) {
+            System.out.println("Encountered a merge conflict.");
+        } else if (result == MergeResult.FAST_FORWARDED) {
+            System.out.println("Current branch fast-forwarded.");
+        }
+    }
+
+    /**
+     * Returns the local address named by host for the serve command to listen on.
+     */
+    private static InetAddress bindAddress(String host) {
+        try {
+            return InetAddress.getByName(host);
+        } catch (UnknownHostException excp) {
+            throw Utils.error("Unknown address: %s", host);
+        }
+    }
 }
@@ -0,0 +1,16 @@
+package gitlet;
+
+/**
+ * How a merge of another branch into the current one ended.
+ *
+ * @author Jonathan Lu
+ */
+
+public enum MergeResult {
+    // The merge was committed.
+    MERGED,
+    // The merge was committed with conflict markers in some files.
+    CONFLICTED,
+    // The current branch was behind, so the other branch was checked out.
+    FAST_FORWARDED
+}
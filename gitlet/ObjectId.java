@@ -0,0 +1,194 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An object id held as its bytes in primitive fields instead of as a hex
+ * String: 20 bytes for SHA-1 ids and 32 for SHA-256 ones. Ids are hashes, so
+ * their bits are already well mixed: hashCode is just the first four bytes,
+ * and ObjectIdSet and ObjectIdIntMap use the fields directly as keys.
+ *
+ * The rest of Gitlet passes ids around as hex Strings. An ObjectId is made
+ * with fromHex where many ids are compared or stored at once, and turned back
+ * into hex with name.
+ *
+ * @author Jonathan Lu
+ */
+
+public final class ObjectId implements Comparable<ObjectId> {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    // Value of each lowercase hex digit, indexed by character, and -1 elsewhere.
+    private static final byte[] HEX_VALUES = new byte['f' + 1];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < HEX.length; i++) {
+            HEX_VALUES[HEX[i]] = (byte) i;
+        }
+    }
+
+    // The bytes of the id, eight to a word and big-endian. A last word of
+    // fewer than eight bytes holds them in its low bits; unused words are zero.
+    final long w1;
+    final long w2;
+    final long w3;
+    final long w4;
+    // Number of bytes in the id.
+    final int length;
+
+    ObjectId(long w1, long w2, long w3, long w4, int length) {
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+        this.w4 = w4;
+        this.length = length;
+    }
+
+    /**
+     * Returns the id written as lowercase hex digits in hex, 40 for SHA-1 or
+     * 64 for SHA-256. Throws IllegalArgumentException if hex is not such an id.
+     */
+    static ObjectId fromHex(CharSequence hex) {
+        int digits = hex.length();
+        if (digits != HashAlgorithm.SHA1.hexLength() && digits != HashAlgorithm.SHA256.hexLength()) {
+            throw new IllegalArgumentException("not an object id: " + hex);
+        }
+        long[] words = new long[4];
+        // Negative once any character is not a hex digit.
+        int bad = 0;
+        for (int i = 0; i < digits; i++) {
+            int d = digit(hex.charAt(i));
+            bad |= d;
+            words[i / 16] = words[i / 16] << 4 | (d & 0xF);
+        }
+        if (bad < 0) {
+            throw new IllegalArgumentException("not an object id: " + hex);
+        }
+        return new ObjectId(words[0], words[1], words[2], words[3], digits / 2);
+    }
+
+    /**
+     * Returns true if id is written as the lowercase hex digits of a SHA-1 or
+     * SHA-256 id.
+     */
+    static boolean isId(CharSequence id) {
+        if (id == null || (id.length() != HashAlgorithm.SHA1.hexLength()
+                && id.length() != HashAlgorithm.SHA256.hexLength())) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (digit(id.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the id of length bytes read from in.
+     */
+    static ObjectId readFrom(ByteBuffer in, int length) {
+        long[] words = new long[4];
+        for (int i = 0; i < length; i++) {
+            words[i / 8] = words[i / 8] << 8 | (in.get() & 0xFF);
+        }
+        return new ObjectId(words[0], words[1], words[2], words[3], length);
+    }
+
+    /**
+     * Writes the bytes of this id to out.
+     */
+    void writeTo(ByteBuffer out) {
+        for (int k = 0; k * 8 < length; k++) {
+            int bytes = Math.min(8, length - k * 8);
+            long word = word(k);
+            for (int i = bytes - 1; i >= 0; i--) {
+                out.put((byte) (word >>> (8 * i)));
+            }
+        }
+    }
+
+    /**
+     * Returns word k of this id.
+     */
+    long word(int k) {
+        switch (k) {
+            case 0:
+                return w1;
+            case 1:
+                return w2;
+            case 2:
+                return w3;
+            default:
+                return w4;
+        }
+    }
+
+    /**
+     * Returns this id as lowercase hex digits.
+     */
+    String name() {
+        byte[] hex = new byte[length * 2];
+        for (int k = 0; k * 16 < hex.length; k++) {
+            writeHex(word(k), hex, k * 16, Math.min(16, hex.length - k * 16));
+        }
+        return new String(hex, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns bytes as lowercase hex digits, two per byte.
+     */
+    static String toHex(byte[] bytes) {
+        byte[] hex = new byte[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >>> 4) & 0xF];
+            hex[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(hex, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) o;
+        return w1 == other.w1 && w2 == other.w2 && w3 == other.w3 && w4 == other.w4
+                && length == other.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (w1 >>> 32);
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        for (int k = 0; k < 4; k++) {
+            int c = Long.compareUnsigned(word(k), other.word(k));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(length, other.length);
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+
+    private static int digit(char ch) {
+        return ch < HEX_VALUES.length ? HEX_VALUES[ch] : -1;
+    }
+
+    private static void writeHex(long value, byte[] hex, int start, int digits) {
+        for (int i = start + digits - 1; i >= start; i--) {
+            hex[i] = HEX[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+}
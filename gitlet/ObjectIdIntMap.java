@@ -0,0 +1,76 @@
+package gitlet;
+
+/**
+ * A map from object ids to ints, kept as an ObjectIdSet of the keys and an int
+ * array of the values by slot, so neither the ids nor the values are boxed.
+ * Used for commit positions, generations and depths in history walks.
+ *
+ * @author Jonathan Lu
+ */
+
+public class ObjectIdIntMap extends ObjectIdSet {
+
+    private int[] values;
+
+    ObjectIdIntMap() {
+        this(16);
+    }
+
+    /**
+     * Creates a map that holds expected ids without growing.
+     */
+    ObjectIdIntMap(int expected) {
+        super(expected);
+        values = new int[capacity()];
+    }
+
+    /**
+     * Maps id to value, replacing any value it had.
+     */
+    void put(ObjectId id, int value) {
+        int slot = find(id);
+        if (slot < 0) {
+            slot = insert(-slot - 1, id);
+        }
+        values[slot] = value;
+    }
+
+    void put(String id, int value) {
+        put(ObjectId.fromHex(id), value);
+    }
+
+    /**
+     * Maps id to value if it has no value yet, and returns true if it had none.
+     */
+    boolean putIfAbsent(String id, int value) {
+        ObjectId key = ObjectId.fromHex(id);
+        if (contains(key)) {
+            return false;
+        }
+        put(key, value);
+        return true;
+    }
+
+    /**
+     * Returns the value of id, or missing if it has none.
+     */
+    int get(ObjectId id, int missing) {
+        int slot = find(id);
+        return slot >= 0 ? values[slot] : missing;
+    }
+
+    int get(String id, int missing) {
+        return get(ObjectId.fromHex(id), missing);
+    }
+
+    @Override
+    void grown(int[] moved, int capacity) {
+        int[] old = values;
+        values = new int[capacity];
+        for (int i = 0; i < moved.length; i++) {
+            if (moved[i] >= 0) {
+                values[moved[i]] = old[i];
+            }
+        }
+    }
+}
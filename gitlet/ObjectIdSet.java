@@ -0,0 +1,207 @@
+package gitlet;
+
+import java.util.function.Consumer;
+
+/**
+ * A set of object ids kept in one long array with open addressing, instead of
+ * a HashSet of hex Strings. A slot holds the words of an id followed, for
+ * SHA-256 ids, by one more word; bit 32 of its last word is set, so an empty
+ * slot is all zero. A SHA-1 slot is three longs: the first 16 bytes of the id
+ * and its last four bytes with bit 32 set. Collisions probe the next slot, and
+ * the set grows once two thirds of its slots are used. With no node objects
+ * and no Strings, a SHA-1 id takes 36 to 72 bytes, against roughly 130 for a
+ * String in a HashSet.
+ *
+ * The slots are allocated when the first id is added, and every id in a set
+ * must have the same length. Methods taking a String parse it as a hex id
+ * first.
+ *
+ * @author Jonathan Lu
+ */
+
+public class ObjectIdSet {
+
+    private static final int MIN_CAPACITY = 16;
+    // Marks a used slot in its last word.
+    private static final long USED = 1L << 32;
+
+    // Width words per slot; the number of slots is a power of two.
+    private long[] slots;
+    private int capacity;
+    // Length in bytes of the ids in the set, and words per slot, once the
+    // first id is added.
+    private int idLength;
+    private int width;
+    private int size;
+
+    ObjectIdSet() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Creates a set that holds expected ids without growing.
+     */
+    ObjectIdSet(int expected) {
+        capacity = MIN_CAPACITY;
+        while (capacity * 2 < expected * 3) {
+            capacity <<= 1;
+        }
+    }
+
+    /**
+     * Adds id and returns true if it was not already in the set.
+     */
+    boolean add(ObjectId id) {
+        int slot = find(id);
+        if (slot >= 0) {
+            return false;
+        }
+        insert(-slot - 1, id);
+        return true;
+    }
+
+    boolean add(String id) {
+        return add(ObjectId.fromHex(id));
+    }
+
+    boolean contains(ObjectId id) {
+        return find(id) >= 0;
+    }
+
+    boolean contains(String id) {
+        return contains(ObjectId.fromHex(id));
+    }
+
+    /**
+     * Returns the number of slots.
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Calls action with every id in the set, in no particular order.
+     */
+    void forEach(Consumer<ObjectId> action) {
+        if (slots == null) {
+            return;
+        }
+        long[] words = new long[4];
+        int idWords = (idLength + 7) / 8;
+        for (int i = 0; i < slots.length; i += width) {
+            if (slots[i + width - 1] != 0) {
+                for (int k = 0; k < idWords; k++) {
+                    words[k] = slots[i + k];
+                }
+                if (idWords == width) {
+                    words[idWords - 1] &= ~USED;
+                }
+                action.accept(new ObjectId(words[0], words[1], words[2], words[3], idLength));
+            }
+        }
+    }
+
+    /**
+     * Returns the slot holding id, or -(the empty slot where it would go) - 1
+     * if it is not in the set.
+     */
+    int find(ObjectId id) {
+        int mask = capacity - 1;
+        int slot = (int) (id.w1 >>> 32) & mask;
+        if (slots == null || id.length != idLength) {
+            return -slot - 1;
+        }
+        while (true) {
+            int i = slot * width;
+            if (slots[i + width - 1] == 0) {
+                return -slot - 1;
+            }
+            if (matches(i, id)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Stores id in the empty slot, growing the set if two thirds of its slots
+     * are used, and returns the slot the id ends up in.
+     */
+    int insert(int slot, ObjectId id) {
+        if (slots == null) {
+            idLength = id.length;
+            width = id.length % 8 == 0 ? id.length / 8 + 1 : (id.length + 7) / 8;
+            slots = new long[capacity * width];
+        } else if (id.length != idLength) {
+            throw new IllegalArgumentException("object ids of different lengths in one set");
+        }
+        int i = slot * width;
+        for (int k = 0; k < width; k++) {
+            slots[i + k] = slotWord(id, k);
+        }
+        size += 1;
+        if (size * 3 > capacity * 2) {
+            grow();
+            return find(id);
+        }
+        return slot;
+    }
+
+    private boolean matches(int i, ObjectId id) {
+        for (int k = 0; k < width; k++) {
+            if (slots[i + k] != slotWord(id, k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns word k of the slot holding id.
+     */
+    private long slotWord(ObjectId id, int k) {
+        long word = k * 8 < id.length ? id.word(k) : 0;
+        return k == width - 1 ? word | USED : word;
+    }
+
+    /**
+     * Doubles the number of slots and moves every id to its new slot.
+     */
+    private void grow() {
+        long[] old = slots;
+        int oldCapacity = capacity;
+        capacity <<= 1;
+        slots = new long[capacity * width];
+        int mask = capacity - 1;
+        int[] moved = new int[oldCapacity];
+        for (int i = 0; i < old.length; i += width) {
+            if (old[i + width - 1] != 0) {
+                int slot = (int) (old[i] >>> 32) & mask;
+                while (slots[slot * width + width - 1] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                System.arraycopy(old, i, slots, slot * width, width);
+                moved[i / width] = slot;
+            } else {
+                moved[i / width] = -1;
+            }
+        }
+        grown(moved, capacity);
+    }
+
+    /**
+     * Called after the set grows to capacity slots, with the new slot of the
+     * id in each old slot, or -1 for an old slot that was empty. Subclasses
+     * that keep values by slot move them here.
+     */
+    void grown(int[] moved, int capacity) {
+    }
+}
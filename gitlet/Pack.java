@@ -0,0 +1,199 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+
+/**
+ * Reads and writes packs: streams of objects sent from one repository to
+ * another. A pack starts with PACK_MAGIC and the sender's working directory,
+ * followed by its commits with parents before children, each preceded by the
+ * blobs it is the first to track, then a zero byte. Each blob is sent as its
+ * id, the path of its file in the sender's working directory, its length and
+ * its contents; each commit as the length of its encoded form (see Codec)
+ * and that form. A blob is sent with the path its id was hashed from, which
+ * the receiver keeps, so every receiver can hash the blob again; a commit's
+ * paths are moved into the receiver's working directory, as a local fetch or
+ * push does.
+ *
+ * A pack comes from another machine, so the receiver trusts nothing in it:
+ * every id must be an id of the receiver's object format, every blob must
+ * hash to its id, and every file a commit tracks must lie inside the
+ * receiver's working directory and outside its .gitlet directory.
+ *
+ * @author Jonathan Lu
+ */
+
+public class Pack {
+
+    // Marks the start of a pack ("GLP1").
+    static final int PACK_MAGIC = 0x474C5031;
+
+    private static final byte END = 0;
+    private static final byte BLOB = 1;
+    private static final byte COMMIT = 2;
+
+    /**
+     * Writes a pack of the given commits of repository gitletDir, listed parents
+     * first, and of the blobs among blobIds that they track. Commits are read one
+     * at a time, so memory use does not grow with the length of the history.
+     */
+    static void write(List<String> commitIds, Set<String> blobIds, File gitletDir,
+            DataOutputStream out) throws IOException {
+        out.writeInt(PACK_MAGIC);
+        out.writeUTF(gitletDir.getAbsoluteFile().getParent());
+        WritableByteChannel channel = Channels.newChannel(out);
+        ObjectIdSet written = new ObjectIdSet();
+        for (String id : commitIds) {
+            Commit c = Commit.getCommit(id, gitletDir);
+            assert c != null;
+            for (Map.Entry<String, String> entry : c.getTracked().entrySet()) {
+                String blobId = entry.getValue();
+                if (!blobIds.contains(blobId) || !written.add(blobId)) {
+                    continue;
+                }
+                out.writeByte(BLOB);
+                out.writeUTF(blobId);
+                out.writeUTF(Blob.sourcePath(blobId, gitletDir));
+                out.writeLong(Blob.contentLength(blobId, gitletDir));
+                Blob.transferContent(blobId, gitletDir, channel);
+            }
+            byte[] encoded = c.encode();
+            out.writeByte(COMMIT);
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        }
+        out.writeByte(END);
+        out.flush();
+    }
+
+    /**
+     * Writes a pack of just the given blobs of repository gitletDir, for a
+     * partial repository fetching the blobs it needs. Blobs gitletDir does not
+     * have are left out.
+     */
+    static void writeBlobs(Collection<String> blobIds, File gitletDir, DataOutputStream out)
+            throws IOException {
+        out.writeInt(PACK_MAGIC);
+        out.writeUTF(gitletDir.getAbsoluteFile().getParent());
+        WritableByteChannel channel = Channels.newChannel(out);
+        for (String blobId : blobIds) {
+            String source = Blob.sourcePath(blobId, gitletDir);
+            if (source == null) {
+                continue;
+            }
+            out.writeByte(BLOB);
+            out.writeUTF(blobId);
+            out.writeUTF(source);
+            out.writeLong(Blob.contentLength(blobId, gitletDir));
+            Blob.transferContent(blobId, gitletDir, channel);
+        }
+        out.writeByte(END);
+        out.flush();
+    }
+
+    /**
+     * Reads a pack into repository gitletDir, recording its commits on branch
+     * branchName. Objects gitletDir already has are skipped. Returns the ids of
+     * the commits that were added, parents first. If log is not null, the global
+     * log entry of each added commit is appended to it. If journal is not null,
+     * every object written is recorded in it.
+     */
+    static List<String> read(DataInputStream in, String branchName, File gitletDir,
+            StringBuilder log, Journal journal) throws IOException {
+        if (in.readInt() != PACK_MAGIC) {
+            throw Utils.error("Received a malformed pack.");
+        }
+        File fromWorkTree = new File(in.readUTF());
+        File toWorkTree = gitletDir.getAbsoluteFile().getParentFile();
+        List<String> added = new ArrayList<>();
+        byte type;
+        while ((type = in.readByte()) != END) {
+            if (type == BLOB) {
+                String id = readId(in, gitletDir);
+                File source = new File(in.readUTF());
+                long length = in.readLong();
+                boolean stored;
+                synchronized (Utils.objectLock(id)) {
+                    stored = Blob.receive(id, source, length, in, gitletDir);
+                }
+                if (stored && journal != null) {
+                    journal.written(id, false);
+                }
+            } else if (type == COMMIT) {
+                int length = in.readInt();
+                if (length < 0) {
+                    throw Utils.error("Received a malformed pack.");
+                }
+                Commit c = Commit.decode(in.readNBytes(length));
+                if (c == null) {
+                    throw Utils.error("Received a malformed pack.");
+                }
+                Commit rebased = c.rebase(branchName, fromWorkTree, toWorkTree);
+                checkCommit(rebased, toWorkTree, gitletDir);
+                boolean stored = false;
+                synchronized (Utils.objectLock(c.getId())) {
+                    if (Utils.objectFile(c.getId(), gitletDir) == null) {
+                        rebased.save(gitletDir);
+                        stored = true;
+                    }
+                }
+                if (stored) {
+                    added.add(c.getId());
+                    if (journal != null) {
+                        journal.written(c.getId(), true);
+                    }
+                    if (log != null) {
+                        log.append(Utils.globalLogEntry(c));
+                    }
+                }
+            } else {
+                throw Utils.error("Received a malformed pack.");
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Reads an object id sent by another repository for repository gitletDir.
+     */
+    static String readId(DataInputStream in, File gitletDir) throws IOException {
+        return checkId(in.readUTF(), gitletDir);
+    }
+
+    /**
+     * Returns id, an object id received from another repository, after
+     * checking that it is an id of the object format of repository gitletDir,
+     * so it can name an object file there.
+     */
+    static String checkId(String id, File gitletDir) {
+        if (!ObjectId.isId(id) || id.length() != HashAlgorithm.of(gitletDir).hexLength()) {
+            throw Utils.error("Received a malformed object id.");
+        }
+        return id;
+    }
+
+    /**
+     * Checks that a received commit, with its paths moved into the working
+     * directory toWorkTree of repository gitletDir, names its parents and
+     * blobs with well-formed ids and tracks only files of the working
+     * directory. Commit ids hash the absolute paths of the repository that
+     * made the commit, so unlike a blob a commit cannot be hashed again.
+     */
+    private static void checkCommit(Commit c, File toWorkTree, File gitletDir) {
+        checkId(c.getId(), gitletDir);
+        for (String parentId : c.getParents()) {
+            checkId(parentId, gitletDir);
+        }
+        for (Map.Entry<String, String> entry : c.getTracked().entrySet()) {
+            checkId(entry.getValue(), gitletDir);
+            if (!Utils.inWorkTree(entry.getKey(), toWorkTree)) {
+                throw Utils.error("Received a malformed pack.");
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Numbers the file paths of a repository, so commits and the staging area can
+ * record a tracked file as a small integer instead of its absolute path. The
+ * table is kept in the paths file of the .gitlet directory: PATHS_MAGIC, then
+ * each path in the order it was numbered, relative to the working directory
+ * unless the file is outside it. The table only grows, so a path keeps its
+ * number for the life of the repository. Processes append to it under a file
+ * lock, and an entry torn by a crash is ignored and overwritten.
+ *
+ * In memory every path is held once, as the absolute path that the tracked
+ * maps of all decoded commits share. Records that leave the repository, like
+ * the commits of a pack, still carry their paths in full. The RepositoryCache
+ * of a repository keeps its table while the file is the one it was read
+ * from: a table whose file was replaced or shortened, as when a repository is
+ * deleted and created again, is read anew.
+ *
+ * @author Jonathan Lu
+ */
+
+public class PathTable {
+
+    // Marks the start of a path table file ("GLF1").
+    private static final int PATHS_MAGIC = 0x474C4631;
+
+    private final File tableFile;
+    // Path of the working directory, with a trailing separator.
+    private final String workTreePrefix;
+    private final List<String> paths = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    // Length of the part of the table file read so far.
+    private long readLength = 0;
+    // Identity of the table file that was read, or null if the platform has none.
+    private Object fileKey;
+
+    PathTable(File gitletDir) {
+        File dir = gitletDir.toPath().toAbsolutePath().normalize().toFile();
+        tableFile = Utils.join(dir, "paths");
+        workTreePrefix = dir.getParent() + File.separator;
+    }
+
+    /**
+     * Returns the path table of repository gitletDir.
+     */
+    static PathTable of(File gitletDir) {
+        return RepositoryCache.of(gitletDir).paths();
+    }
+
+    /**
+     * Returns true if the table file is still the file this table was read
+     * from, and has not lost any of the entries read.
+     */
+    synchronized boolean isCurrent() {
+        if (readLength == 0) {
+            return true;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(tableFile.toPath(),
+                    BasicFileAttributes.class);
+            return attributes.size() >= readLength
+                    && Objects.equals(attributes.fileKey(), fileKey);
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of the absolute path filePath, numbering it first if
+     * it has none.
+     */
+    synchronized int id(String filePath) {
+        Integer id = ids.get(filePath);
+        if (id == null) {
+            readTail();
+            id = ids.get(filePath);
+        }
+        return id != null ? id : append(filePath);
+    }
+
+    /**
+     * Returns the absolute path numbered id.
+     */
+    synchronized String path(int id) {
+        if (id >= paths.size()) {
+            // Another process may have numbered it since the table was read.
+            readTail();
+        }
+        if (id < 0 || id >= paths.size()) {
+            throw Utils.error("Malformed repository metadata.");
+        }
+        return paths.get(id);
+    }
+
+    /**
+     * Forces the table to disk, so records that use its numbers can be made
+     * durable.
+     */
+    synchronized void force() {
+        if (!tableFile.exists()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(tableFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            throw Utils.error("Could not write the path table: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Numbers filePath at the end of the table file, unless another process
+     * numbered it first, and returns its number.
+     */
+    private int append(String filePath) {
+        try (FileChannel channel = FileChannel.open(tableFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Held until the channel is closed.
+            channel.lock();
+            readTail(channel);
+            Integer id = ids.get(filePath);
+            if (id != null) {
+                return id;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            if (readLength == 0) {
+                out.writeInt(PATHS_MAGIC);
+                fileKey = fileKey();
+            }
+            String stored = filePath.startsWith(workTreePrefix)
+                    ? filePath.substring(workTreePrefix.length()) : filePath;
+            out.writeUTF(stored);
+            // Overwrites whatever a crashed append left after the last whole entry.
+            channel.truncate(readLength);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            long position = readLength;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            readLength = position;
+            return add(filePath);
+        } catch (IOException excp) {
+            throw Utils.error("Could not write the path table: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Reads the entries appended to the table file since it was last read.
+     */
+    private void readTail() {
+        if (!tableFile.exists() || tableFile.length() == readLength) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(tableFile.toPath(), StandardOpenOption.READ)) {
+            readTail(channel);
+        } catch (IOException excp) {
+            throw Utils.error("Could not read the path table: %s", excp.getMessage());
+        }
+    }
+
+    private void readTail(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size <= readLength) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) (size - readLength));
+        while (buffer.hasRemaining() && channel.read(buffer, readLength + buffer.position()) > 0) {
+            // Reads until the buffer is full.
+        }
+        byte[] tail = Arrays.copyOf(buffer.array(), buffer.position());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(tail));
+        int consumed = 0;
+        try {
+            if (readLength == 0) {
+                fileKey = fileKey();
+                if (in.readInt() != PATHS_MAGIC) {
+                    throw Utils.error("Malformed repository metadata.");
+                }
+                consumed = 4;
+            }
+            while (consumed < tail.length) {
+                String stored = in.readUTF();
+                add(new File(stored).isAbsolute() ? stored : workTreePrefix + stored);
+                consumed = tail.length - in.available();
+            }
+        } catch (EOFException excp) {
+            // The last entry is incomplete: a crashed append, or one still being written.
+        }
+        readLength += consumed;
+    }
+
+    /**
+     * Returns the identity of the table file, or null if the platform has none.
+     */
+    private Object fileKey() throws IOException {
+        return Files.readAttributes(tableFile.toPath(), BasicFileAttributes.class).fileKey();
+    }
+
+    private int add(String filePath) {
+        ids.put(filePath, paths.size());
+        paths.add(filePath);
+        return paths.size() - 1;
+    }
+}
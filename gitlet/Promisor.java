@@ -0,0 +1,128 @@
+package gitlet;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Fetches the blobs of a partial repository on demand. A fetch with
+ * --filter=blob:none copies commits without their blobs and records the remote
+ * as a promisor, one name per line in the promisors file of the .gitlet
+ * directory. When a blob is then needed but missing, it is fetched from the
+ * promisor remotes, so the object store only grows with the files that are
+ * actually materialized. Commands that need many blobs at once, like checkout
+ * and merge, fetch them in one batch first.
+ *
+ * @author Jonathan Lu
+ */
+
+public class Promisor {
+
+    // Paths of the .gitlet directories this thread is fetching blobs into.
+    private static final ThreadLocal<Set<String>> FETCHING =
+            ThreadLocal.withInitial(HashSet::new);
+
+    /**
+     * Records the given remote of repository gitletDir as a promisor remote.
+     */
+    static synchronized void add(String remoteName, File gitletDir) {
+        List<String> names = remotes(gitletDir);
+        if (!names.contains(remoteName)) {
+            names.add(remoteName);
+            Utils.writeContents(Utils.join(gitletDir, "promisors"),
+                    String.join("\n", names) + "\n");
+        }
+    }
+
+    /**
+     * Returns the names of the promisor remotes of repository gitletDir.
+     */
+    static List<String> remotes(File gitletDir) {
+        List<String> names = new ArrayList<>();
+        File promisorsFile = Utils.join(gitletDir, "promisors");
+        if (promisorsFile.exists()) {
+            for (String line : Utils.readContentsAsString(promisorsFile).split("\n")) {
+                if (!line.isBlank()) {
+                    names.add(line.trim());
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Fetches the blobs among blobIds that repository gitletDir is missing from
+     * its promisor remotes, asking each remote in turn for what is still
+     * missing. Does nothing in a repository without promisor remotes.
+     */
+    static void fetch(Collection<String> blobIds, File gitletDir) {
+        if (!Utils.join(gitletDir, "promisors").exists()) {
+            return;
+        }
+        Set<String> missing = missing(blobIds, gitletDir);
+        // Remotes that promise each other's blobs must not ask each other forever.
+        if (missing.isEmpty() || !FETCHING.get().add(gitletDir.getAbsolutePath())) {
+            return;
+        }
+        try {
+            for (String remoteName : remotes(gitletDir)) {
+                File remoteFile = Utils.join(gitletDir, "remotes", remoteName);
+                if (!remoteFile.exists()) {
+                    continue;
+                }
+                String location = Utils.readContentsAsString(remoteFile);
+                if (Transport.isUrl(location)) {
+                    Transport.fetchBlobs(location, missing, gitletDir);
+                } else {
+                    copyBlobs(missing, remoteDir(location, gitletDir), gitletDir);
+                }
+                missing = missing(missing, gitletDir);
+                if (missing.isEmpty()) {
+                    return;
+                }
+            }
+        } finally {
+            FETCHING.get().remove(gitletDir.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Copies the given blobs from the repository remoteDir, which may itself be
+     * partial, into repository gitletDir.
+     */
+    private static void copyBlobs(Set<String> blobIds, File remoteDir, File gitletDir) {
+        if (!Utils.join(remoteDir, "HEAD").isFile()) {
+            return;
+        }
+        RepositoryCache remote = RepositoryCache.open(remoteDir);
+        try {
+            fetch(blobIds, remoteDir);
+            for (String id : blobIds) {
+                if (Utils.objectFile(id, remoteDir) != null) {
+                    Blob.copy(id, remoteDir, gitletDir);
+                }
+            }
+        } finally {
+            remote.close();
+        }
+    }
+
+    /**
+     * Returns the .gitlet directory of a remote at location, which is relative
+     * to the working directory of repository gitletDir unless it is absolute.
+     */
+    private static File remoteDir(String location, File gitletDir) {
+        File dir = new File(location);
+        return dir.isAbsolute() ? dir : new File(gitletDir.getAbsoluteFile().getParentFile(),
+                location);
+    }
+
+    private static Set<String> missing(Collection<String> blobIds, File gitletDir) {
+        Set<String> missing = new LinkedHashSet<>();
+        for (String id : blobIds) {
+            if (id != null && Utils.objectFile(id, gitletDir) == null) {
+                missing.add(id);
+            }
+        }
+        return missing;
+    }
+}
@@ -0,0 +1,44 @@
+package gitlet;
+
+/**
+ * How a push to one remote ended: the number of commits it pushed, or why it
+ * failed. toString formats it the way the push command prints it when
+ * pushing to several remotes.
+ *
+ * @author Jonathan Lu
+ */
+
+public final class PushResult {
+
+    private final String remoteName;
+    private final int commits;
+    // Error message of a failed push, or null.
+    private final String failure;
+
+    PushResult(String remoteName, int commits, String failure) {
+        this.remoteName = remoteName;
+        this.commits = commits;
+        this.failure = failure;
+    }
+
+    public String getRemoteName() {
+        return remoteName;
+    }
+
+    public int getCommits() {
+        return commits;
+    }
+
+    /**
+     * Returns the error message of a failed push, or null if it succeeded.
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return failure == null ? remoteName + ": pushed " + commits + " commits."
+                : remoteName + ": failed: " + failure;
+    }
+}
@@ -0,0 +1,298 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Answers reachability questions about the commit graph with bitmaps instead of
+ * full history walks. The index numbers every commit reachable from a branch,
+ * parents before children, and stores for each branch head and every
+ * BITMAP_INTERVAL-th commit a bitmap of the commits reachable from it. A query
+ * walks from its commit only until it meets commits with bitmaps, and ORs those
+ * in. Commits made after the index was written are walked normally.
+ *
+ * The index is kept in the bitmaps file of the .gitlet directory: INDEX_MAGIC,
+ * the number of commits and their ids in order, then the number of bitmaps and
+ * for each its commit's position and its compressed words. Bitmaps are
+ * compressed as in EWAH: each marker word gives the length and bit of a run of
+ * all-zero or all-one words and the number of literal words that follow it.
+ *
+ * @author Jonathan Lu
+ */
+
+public class Reachability {
+
+    // Marks a bitmap index file ("GLR1").
+    private static final int INDEX_MAGIC = 0x474C5231;
+    // Every this many commits in index order gets a bitmap.
+    private static final int BITMAP_INTERVAL = 64;
+    // Bits of a marker word holding the number of literal words after it.
+    private static final int LITERAL_BITS = 31;
+    private static final long MAX_LITERALS = (1L << LITERAL_BITS) - 1;
+    private static final long MAX_RUN = (1L << 32) - 1;
+
+    private final List<String> ids;
+    private final ObjectIdIntMap positions;
+    private final Map<Integer, BitSet> bitmaps;
+    // Modification time and size of the file the index was read from.
+    private final String stamp;
+
+    private Reachability(List<String> ids, Map<Integer, BitSet> bitmaps, String stamp) {
+        this.ids = ids;
+        this.positions = new ObjectIdIntMap(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            positions.put(ids.get(i), i);
+        }
+        this.bitmaps = bitmaps;
+        this.stamp = stamp;
+    }
+
+    /**
+     * Returns the reachability index of repository gitletDir, or null if it has
+     * none.
+     */
+    static Reachability read(File gitletDir) {
+        File indexFile = Utils.join(gitletDir, "bitmaps");
+        if (!indexFile.exists()) {
+            return null;
+        }
+        String stamp = indexFile.lastModified() + ":" + indexFile.length();
+        RepositoryCache cache = RepositoryCache.of(gitletDir);
+        Reachability cached = cache.index();
+        if (cached != null && cached.stamp.equals(stamp)) {
+            return cached;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(indexFile.toPath())))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                return null;
+            }
+            List<String> ids = new ArrayList<>();
+            for (int count = in.readInt(); count > 0; count--) {
+                ids.add(in.readUTF());
+            }
+            Map<Integer, BitSet> bitmaps = new HashMap<>();
+            for (int count = in.readInt(); count > 0; count--) {
+                int position = in.readInt();
+                long[] words = new long[in.readInt()];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = in.readLong();
+                }
+                bitmaps.put(position, decode(words));
+            }
+            Reachability index = new Reachability(ids, bitmaps, stamp);
+            cache.setIndex(index);
+            return index;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the reachability index of every commit reachable from a branch of
+     * repository gitletDir, and returns it.
+     */
+    static Reachability write(File gitletDir) {
+        // Numbers the commits parents first.
+        List<String> ids = new ArrayList<>();
+        ObjectIdIntMap positions = new ObjectIdIntMap();
+        SortedSet<Integer> selected = new TreeSet<>();
+        for (String name : Branch.branchNames(gitletDir)) {
+            String headId = Branch.readBranch(name, gitletDir).getHeadId();
+            for (String id : Utils.missingCommits(headId, gitletDir, positions::contains)) {
+                positions.put(id, ids.size());
+                ids.add(id);
+            }
+            selected.add(positions.get(headId, -1));
+        }
+        for (int i = BITMAP_INTERVAL - 1; i < ids.size(); i += BITMAP_INTERVAL) {
+            selected.add(i);
+        }
+
+        // Each bitmap reuses the bitmaps of the selected commits below it.
+        Map<Integer, BitSet> bitmaps = new HashMap<>();
+        Reachability index = new Reachability(ids, bitmaps, "");
+        for (int position : selected) {
+            bitmaps.put(position, index.reach(ids.get(position), gitletDir, new ObjectIdSet()));
+        }
+
+        File indexFile = Utils.join(gitletDir, "bitmaps");
+        File temp = Utils.join(gitletDir, "bitmaps.lock");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp.toPath())))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(ids.size());
+                for (String id : ids) {
+                    out.writeUTF(id);
+                }
+                out.writeInt(bitmaps.size());
+                for (int position : selected) {
+                    long[] words = encode(bitmaps.get(position));
+                    out.writeInt(position);
+                    out.writeInt(words.length);
+                    for (long word : words) {
+                        out.writeLong(word);
+                    }
+                }
+            }
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw Utils.error("Could not write bitmaps: %s", excp.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Returns the number of commits in this index.
+     */
+    int size() {
+        return ids.size();
+    }
+
+    /**
+     * Returns the number of commits this index has a bitmap for.
+     */
+    int bitmapCount() {
+        return bitmaps.size();
+    }
+
+    /**
+     * Removes the reachability index of repository gitletDir. Used when the
+     * commit graph itself changes, as when a shallow repository is deepened.
+     */
+    static void delete(File gitletDir) {
+        Utils.join(gitletDir, "bitmaps").delete();
+    }
+
+    /**
+     * Returns true if the commit ancestorId is the commit id or one of its
+     * ancestors.
+     */
+    boolean isAncestor(String ancestorId, String id, File gitletDir) {
+        ObjectIdSet unindexed = new ObjectIdSet();
+        BitSet reachable = reach(id, gitletDir, unindexed);
+        int position = positions.get(ancestorId, -1);
+        return position >= 0 ? reachable.get(position) : unindexed.contains(ancestorId);
+    }
+
+    /**
+     * Returns the ids of the commits reachable from the commit id but not from
+     * the commit excludedId, parents first.
+     */
+    List<String> reachableExcept(String id, String excludedId, File gitletDir) {
+        ObjectIdSet unindexed = new ObjectIdSet();
+        BitSet reachable = reach(id, gitletDir, unindexed);
+        ObjectIdSet excludedUnindexed = new ObjectIdSet();
+        reachable.andNot(reach(excludedId, gitletDir, excludedUnindexed));
+
+        List<String> result = new ArrayList<>();
+        for (int i = reachable.nextSetBit(0); i >= 0; i = reachable.nextSetBit(i + 1)) {
+            result.add(ids.get(i));
+        }
+        // Commits newer than the index come after every indexed commit.
+        result.addAll(Utils.missingCommits(id, gitletDir,
+                c -> positions.contains(c) || excludedUnindexed.contains(c)));
+        return result;
+    }
+
+    /**
+     * Returns the positions of the indexed commits reachable from the commit id,
+     * and adds the reachable commits that are not indexed to unindexed.
+     */
+    private BitSet reach(String id, File gitletDir, ObjectIdSet unindexed) {
+        BitSet reachable = new BitSet(ids.size());
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(id);
+        while (!pending.isEmpty()) {
+            String currentId = pending.pop();
+            ObjectId objectId = ObjectId.fromHex(currentId);
+            int position = positions.get(objectId, -1);
+            if (position >= 0) {
+                if (reachable.get(position)) {
+                    continue;
+                }
+                BitSet known = bitmaps.get(position);
+                if (known != null) {
+                    reachable.or(known);
+                    continue;
+                }
+                reachable.set(position);
+            } else if (!unindexed.add(objectId)) {
+                continue;
+            }
+            Commit c = Commit.getCommit(currentId, gitletDir);
+            assert c != null;
+            c.getParents().forEach(pending::push);
+        }
+        return reachable;
+    }
+
+    /**
+     * Returns the words of bits compressed into runs of all-zero or all-one
+     * words, each followed by the literal words up to the next run.
+     */
+    private static long[] encode(BitSet bits) {
+        long[] words = bits.toLongArray();
+        List<Long> encoded = new ArrayList<>();
+        int i = 0;
+        while (i < words.length) {
+            long runWord = words[i];
+            long run = 0;
+            if (runWord == 0 || runWord == -1L) {
+                while (i < words.length && words[i] == runWord && run < MAX_RUN) {
+                    run += 1;
+                    i += 1;
+                }
+            }
+            int literalStart = i;
+            while (i < words.length && words[i] != 0 && words[i] != -1L
+                    && i - literalStart < MAX_LITERALS) {
+                i += 1;
+            }
+            long runBit = run > 0 && runWord == -1L ? 1L : 0L;
+            encoded.add(runBit << 63 | run << LITERAL_BITS | (i - literalStart));
+            for (int j = literalStart; j < i; j++) {
+                encoded.add(words[j]);
+            }
+        }
+        long[] result = new long[encoded.size()];
+        for (int j = 0; j < result.length; j++) {
+            result[j] = encoded.get(j);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the bits whose compressed words are given.
+     */
+    private static BitSet decode(long[] encoded) {
+        List<Long> words = new ArrayList<>();
+        int i = 0;
+        while (i < encoded.length) {
+            long marker = encoded[i++];
+            long fill = (marker >>> 63) == 1 ? -1L : 0L;
+            long run = (marker >>> LITERAL_BITS) & MAX_RUN;
+            long literals = marker & MAX_LITERALS;
+            for (long j = 0; j < run; j++) {
+                words.add(fill);
+            }
+            for (long j = 0; j < literals; j++) {
+                words.add(encoded[i++]);
+            }
+        }
+        long[] result = new long[words.size()];
+        for (int j = 0; j < result.length; j++) {
+            result[j] = words.get(j);
+        }
+        return BitSet.valueOf(result);
+    }
+}
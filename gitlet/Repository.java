@@ -1,9 +1,19 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static gitlet.Utils.*;
 
@@ -22,31 +32,122 @@ import static gitlet.Utils.*;
  */
 public class Repository {
 
-    // The current working directory.
-    public static final File CWD = new File(System.getProperty("user.dir"));
+    // Most transfers run at once by fetchBranches and pushMirrors.
+    private static final int TRANSFER_THREADS = 8;
+
+    // The working directory of the repository.
+    final File workTree;
     // The .gitlet directory.
-    public static final File GITLET_DIR = join(CWD, ".gitlet");
-    public static final File HEAD = join(GITLET_DIR, "head");
-    public static final File LOG = join(GITLET_DIR, "log");
-    public static final File OBJECTS_DIR = join(GITLET_DIR, "objects");
-    public static final File GLOBAL_LOG = join(GITLET_DIR, "global log");
-    public static final File REMOTES_DIR = join(GITLET_DIR, "remotes");
-    public static final File BRANCHES_DIR = join(GITLET_DIR, "branches");
-    public static final File ACTIVE_BRANCH = join(BRANCHES_DIR, "active branch");
-    public static final File STAGING_FILE = join(GITLET_DIR, "staging");
-    static Staging staging = STAGING_FILE.exists() ? Staging.readStaging() : new Staging();
+    final File gitletDir;
+    final File headFile;
+    final File logFile;
+    final File objectsDir;
+    final File globalLogFile;
+    final File remotesDir;
+    final File branchesDir;
+    final File activeBranchFile;
+    final File stagingFile;
+    // Repository state is read on first use, so commands only load what they touch.
+    private Staging staging;
+    private SparseCheckout sparse;
+    // When true, staging changes are only written by flush.
+    private boolean deferSaves = false;
+    // State of this repository kept in memory between commands.
+    private final RepositoryCache cache;
+    private boolean closed = false;
     // Formatter for the timestamp passed to Commit objects.
     DateFormat dateFormat = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
 
+    /**
+     * Creates the repository whose working directory is workTree and opens its
+     * cache, which close releases. Nothing is read until a command needs it,
+     * so the repository need not exist yet.
+     */
+    Repository(File workTree) {
+        this.workTree = workTree.toPath().toAbsolutePath().normalize().toFile();
+        gitletDir = join(this.workTree, ".gitlet");
+        headFile = join(gitletDir, "HEAD");
+        logFile = join(gitletDir, "log");
+        objectsDir = join(gitletDir, "objects");
+        globalLogFile = join(gitletDir, "global log");
+        remotesDir = join(gitletDir, "remotes");
+        branchesDir = join(gitletDir, "branches");
+        activeBranchFile = join(branchesDir, "active branch");
+        stagingFile = join(gitletDir, "staging");
+        cache = RepositoryCache.open(gitletDir);
+    }
+
+    /**
+     * Returns the staging area, reading it from the staging file on first use.
+     */
+    Staging staging() {
+        if (staging == null) {
+            staging = stagingFile.exists() ? Staging.readStaging(gitletDir) : new Staging(gitletDir);
+            staging.setDeferSaves(deferSaves);
+        }
+        return staging;
+    }
+
+    /**
+     * Returns the sparse-checkout configuration, reading it on first use.
+     */
+    SparseCheckout sparse() {
+        if (sparse == null) {
+            sparse = SparseCheckout.readSparseCheckout(gitletDir);
+        }
+        return sparse;
+    }
+
+    /**
+     * Sets whether staging changes are written only by flush. Used by batch
+     * mode to write the staging area once instead of after every change.
+     */
+    void setDeferSaves(boolean defer) {
+        deferSaves = defer;
+        if (staging != null) {
+            staging.setDeferSaves(defer);
+        }
+    }
+
+    /**
+     * Writes any deferred changes to repository state that has been read.
+     */
+    void flush() {
+        if (staging != null) {
+            staging.flush();
+        }
+    }
+
+    /**
+     * Drops all repository state read so far, so it is read again on next use.
+     */
+    void clearCaches() {
+        staging = null;
+        sparse = null;
+        cache.clear();
+    }
+
+    /**
+     * Writes any deferred changes and releases the state kept in memory for
+     * this repository. Commands must not be run after it.
+     */
+    void close() {
+        if (!closed) {
+            closed = true;
+            flush();
+            cache.close();
+        }
+    }
+
     /**
      * Takes the version of the file as it exists in the commit with the given id,
      * and puts it in the working directory, overwriting the version of the file
      * there if it exists. The new version of the file is not staged.
      */
-    public static void checkoutCommit(String commitId, String name) {
+    public void checkoutCommit(String commitId, String name) {
         overFiveCharacters(commitId);
-        File checkout = join(CWD, name);
-        Commit c = Commit.getCommit(commitId, GITLET_DIR);
+        File checkout = join(workTree, name);
+        Commit c = Commit.getCommit(commitId, gitletDir);
         if (c == null) {
             exit("No commit with that id exists.");
         }
@@ -55,52 +156,56 @@ public class Repository {
             exit("File does not exist in that commit.");
         }
 
-        Blob b = Blob.getBlob(c.getTracked().get(getFile(name).getPath()), GITLET_DIR);
-        assert b != null;
-        checkForUntracked(Objects.requireNonNull(Commit.getCommit(commitId, GITLET_DIR)));
-        writeContents(checkout, (Object) b.getContent());
+        checkForUntracked(c);
+        boolean restored = Blob.restore(c.getTracked().get(getFile(name, workTree).getPath()),
+                gitletDir, checkout);
+        assert restored;
     }
 
     /**
      * Creates a new INITIAL Commit object and saves it to a file.
-     * The file is stored in the OBJECTS_DIR with a preset message.
+     * The file is stored in the OBJECTS_DIR with a preset message. Objects of
+     * the new repository are named with the given hash algorithm.
      */
-    public void init() {
-        if (GITLET_DIR.exists()) {
+    public void init(HashAlgorithm algorithm) {
+        if (gitletDir.exists()) {
             exit("A Gitlet version-control system already exists in the current directory.");
         }
-        // Creates repository directories in the CWD.
-        GITLET_DIR.mkdir();
-        OBJECTS_DIR.mkdir();
-        BRANCHES_DIR.mkdir();
-        REMOTES_DIR.mkdir();
+        // Creates repository directories in the working directory.
+        gitletDir.mkdir();
+        objectsDir.mkdir();
+        branchesDir.mkdir();
+        remotesDir.mkdir();
+        // Nothing read from a repository that was here before still holds.
+        clearCaches();
+        algorithm.save(gitletDir);
 
         // Saves the initial commit.
         String timestamp = dateFormat.format(new Date(0));
         Commit initial = new Commit("initial commit", null, null, timestamp,
-                0, "master");
-        setHead(initial.getId(), GITLET_DIR);
-        initial.save(GITLET_DIR);
+                0, "master", gitletDir);
+        setHead(initial.getId(), gitletDir);
+        initial.save(gitletDir);
         // Saves the master branch.
-        Branch master = new Branch("master", initial);
-        master.save(GITLET_DIR);
-        setActiveBranchName("master");
-        buildGlobalLog(initial, GITLET_DIR);
+        Branch master = new Branch("master", initial.getId());
+        master.save(gitletDir);
+        setActiveBranchName("master", gitletDir);
+        buildGlobalLog(initial, gitletDir);
 
         // Stores the initial commit in staging, used for rebuilding global logs.
-        staging.setInitialId(initial.getId());
-        staging.save();
+        staging().setInitialId(initial.getId());
+        staging().save();
     }
 
     /**
      * Stages a file for addition.
      */
     public void add(String name) {
-        File file = getFile(name);
+        File file = getFile(name, workTree);
         if (!file.exists()) {
             exit("File does not exist.");
         }
-        staging.add(file);
+        staging().add(file);
     }
 
     /**
@@ -115,11 +220,11 @@ public class Repository {
          */
         commitErrors(message, secondParentId);
         // Creates new tracked map and parents list to be committed
-        Map<String, String> tracked = staging.commit();
-        staging.save();
+        Map<String, String> tracked = staging().commit();
+        staging().save();
         List<String> parents = new ArrayList<>();
-        parents.add(getHeadId(GITLET_DIR));
-        int parentDepth = getHeadCommit(GITLET_DIR).getDepth();
+        parents.add(getHeadId(gitletDir));
+        int parentDepth = getHeadCommit(gitletDir).getDepth();
 
         // Adds second parent if there is one
         if (secondParentId != null) {
@@ -129,11 +234,11 @@ public class Repository {
         // Saves the new staging area and adds the new commit object
         String timestamp = dateFormat.format(new Date());
         Commit c = new Commit(message, parents, tracked, timestamp, parentDepth + 1,
-                getActiveBranchName(GITLET_DIR));
-        c.save(GITLET_DIR);
-        setHead(c.getId(), GITLET_DIR);
-        updateActiveBranchHead(c, GITLET_DIR);
-        buildGlobalLog(c, GITLET_DIR);
+                getActiveBranchName(gitletDir), gitletDir);
+        c.save(gitletDir);
+        setHead(c.getId(), gitletDir);
+        updateActiveBranchHead(c, gitletDir);
+        buildGlobalLog(c, gitletDir);
     }
 
     /**
@@ -142,30 +247,30 @@ public class Repository {
      * tracking.
      */
     public void rm(String name) {
-        File file = getFile(name);
+        File file = getFile(name, workTree);
         String filePath = file.getPath();
 
         if (!file.exists()) {
-            if (staging.getToRemove().contains(file.getPath())) {
+            if (staging().getToRemove().contains(file.getPath())) {
                 exit("File " + name + " is already staged for removal.");
             }
         }
 
-        if (!staging.getToAdd().containsKey(filePath)
-                && !staging.getTracked().containsKey(filePath)) {
+        if (!staging().getToAdd().containsKey(filePath)
+                && !staging().getTracked().containsKey(filePath)) {
             exit("No reason to remove the file.");
         }
 
-        staging.remove(file);
+        staging().remove(file);
     }
 
     /**
      * Starting at the head commit, displays information about each commit backwards
      * until the initial commit, following fist parents only, ignoring merges.
      */
-    public void log() {
-        buildLog();
-        System.out.println(readContentsAsString(LOG));
+    public String log() {
+        buildLog(gitletDir);
+        return readContentsAsString(logFile);
     }
 
     /**
@@ -175,12 +280,12 @@ public class Repository {
      * newly created branch.
      */
     public void branch(String name) {
-        Branch b = new Branch(name, Commit.getCommit(readContentsAsString(HEAD), GITLET_DIR));
+        Branch b = new Branch(name, getHeadId(gitletDir));
 
-        if (join(Repository.BRANCHES_DIR, name).exists()) {
+        if (Branch.exists(name, gitletDir)) {
             exit("A branch with that name already exists.");
         }
-        b.save(GITLET_DIR);
+        b.save(gitletDir);
     }
 
     /**
@@ -189,20 +294,20 @@ public class Repository {
      * already there if they exist. The given branch is set as the active branch.
      */
     public void checkoutBranch(String name) {
-        File branchFile = join(Repository.BRANCHES_DIR, name);
-        if (!branchFile.exists()) {
+        Branch branch = getBranch(name, gitletDir);
+        if (branch == null) {
             exit("No such branch exists.");
         }
 
-        if (name.equals(getActiveBranchName(GITLET_DIR))) {
+        if (name.equals(getActiveBranchName(gitletDir))) {
             exit("No need to checkout the current branch.");
         }
 
-        Commit branchCommit = Objects.requireNonNull(readObject(branchFile, Branch.class),
-                "No such branch exists.").getHead();
+        Commit branchCommit = Objects.requireNonNull(branch,
+                "No such branch exists.").getHead(gitletDir);
         checkForUntracked(branchCommit);
-        checkoutProcesses(branchCommit, staging);
-        setActiveBranchName(name);
+        checkoutProcesses(branchCommit);
+        setActiveBranchName(name, gitletDir);
     }
 
     /**
@@ -211,139 +316,151 @@ public class Repository {
      * there if there is one. The new version of the file is not staged.
      */
     public void checkoutFile(String name) {
-        File checkout = join(CWD, name);
+        File checkout = join(workTree, name);
 
-        Commit c = Commit.getCommit(readContentsAsString(Repository.HEAD), GITLET_DIR);
+        Commit c = Commit.getCommit(readContentsAsString(headFile), gitletDir);
         assert c != null;
         if (!c.getTrackedNames().contains(name)) {
             exit("File does not exist in that commit.");
         }
-        Blob b = Blob.getBlob(c.getTracked().get(getFile(name).getPath()), GITLET_DIR);
-        assert b != null;
-        writeContents(checkout, (Object) b.getContent());
+        boolean restored = Blob.restore(c.getTracked().get(getFile(name, workTree).getPath()),
+                gitletDir, checkout);
+        assert restored;
     }
 
     /**
      * Deletes the branch with the given name.
      */
     public void rmbranch(String name) {
-        File branchFile = join(Repository.BRANCHES_DIR, name);
-        if (!branchFile.exists()) {
+        if (!Branch.exists(name, gitletDir)) {
             exit("A branch with that name does not exist.");
         }
-        if (name.equals(getActiveBranchName(GITLET_DIR))) {
+        if (name.equals(getActiveBranchName(gitletDir))) {
             exit("Cannot remove the current branch.");
         }
-        branchFile.delete();
+        Branch.delete(name, gitletDir);
     }
 
     /**
-     * Displays information about all commits ever made in chronological order.
+     * Moves every branch into the packed-refs file, so repositories with many
+     * branches can be listed from a single file.
      */
-    public void globalLog() {
-        System.out.println(readContentsAsString(GLOBAL_LOG));
+    public void packRefs() {
+        Branch.packRefs(gitletDir);
     }
 
     /**
-     * Prints out the ids of all commits that have the given commit message, one per
-     * line.
+     * Returns information about all commits ever made in chronological order.
      */
-    public void find(String message) {
-        StringBuilder log = new StringBuilder();
-        List<String> directoryNames = directoriesIn(OBJECTS_DIR);
+    public String globalLog() {
+        return readContentsAsString(globalLogFile);
+    }
+
+    /**
+     * Returns the ids of all commits that have the given commit message.
+     */
+    public List<String> find(String message) {
+        List<String> ids = new ArrayList<>();
+        List<String> directoryNames = directoriesIn(objectsDir);
 
         assert directoryNames != null;
         for (String directoryName : directoryNames) {
-            File directory = join(OBJECTS_DIR, directoryName);
+            File directory = join(objectsDir, directoryName);
             for (String commitName : Objects.requireNonNull(plainFilenamesIn(directory),
                     "No objects exist in this repository.")) {
-                Commit c = Commit.getCommit(directory.getName() + commitName, GITLET_DIR);
+                // Skips files an interrupted write left under a temporary name.
+                if (!ObjectId.isId(directoryName + commitName)) {
+                    continue;
+                }
+                Commit c = Commit.getCommit(directory.getName() + commitName, gitletDir);
                 if (c != null && c.getMessage().equals(message)) {
-                    log.append("\n").append(c.getId());
+                    ids.add(c.getId());
                 }
             }
         }
-
-        if (log.length() == 0) {
-            System.out.println("Found no commit with that message.");
-        } else {
-            log.delete(0, 1);
-            System.out.println(log.toString());
-        }
+        return ids;
     }
 
     /**
-     * Displays what branches currently exist, and marks the current branch with *.
-     * Also displays what files have been staged for addition or removal.
+     * Returns what branches currently exist and which is the current branch,
+     * what files have been staged for addition or removal, and how the
+     * working directory differs from the staging area.
      */
-    public void status() {
-        StringBuilder status = new StringBuilder();
+    public Status status() {
+        Status status = new Status();
 
-        status.append("=== Branches ===\n");
-        for (String branchName : Objects.requireNonNull(plainFilenamesIn(BRANCHES_DIR))) {
-            if (branchName.equals("active branch")) {
-                continue;
-            }
-            if (branchName.equals(getActiveBranchName(GITLET_DIR))) {
-                status.append("*");
-            }
-            status.append(branchName).append("\n");
+        String activeBranch = getActiveBranchName(gitletDir);
+        for (String branchName : Branch.branchNames(gitletDir)) {
+            status.addBranch(branchName, branchName.equals(activeBranch));
         }
-        status.append("\n=== Staged Files ===\n");
-        for (String filePath : staging.getToAdd().keySet()) {
-            status.append(new File(filePath).getName()).append("\n");
+        for (String filePath : staging().getToAdd().keySet()) {
+            status.addStaged(displayName(filePath));
         }
-        status.append("\n=== Removed Files ===\n");
-        for (String filePath : staging.getToRemove()) {
-            status.append(new File(filePath).getName()).append("\n");
+        for (String filePath : staging().getToRemove()) {
+            status.addRemoved(displayName(filePath));
         }
-        status.append("\n=== Modifications Not Staged For Commit ===\n");
-        List<String> cwdFiles = plainFilenamesIn(CWD);
+        List<String> cwdFiles = plainFilenamesIn(workTree);
 
-        // Check for files that are in CWD and not being tracked.
-        for (String filePath : staging.getTracked().keySet()) {
+        // Compares each tracked path, in any subdirectory, with the working file.
+        for (String filePath : staging().getTracked().keySet()) {
+            // Files outside the sparse-checkout patterns are intentionally absent.
+            if (!sparse().includes(filePath)) {
+                continue;
+            }
             File cwdFile = new File(filePath);
-            Blob cwdBlob = new Blob(cwdFile);
-            Blob trackedBlob = Blob.getBlob(staging.getTracked().get(filePath), GITLET_DIR);
-            String fileName = cwdFile.getName();
+            String fileName = displayName(filePath);
             /*
              * If the file is not in CWD but is being tracked (and not currently staged).
              * then it is appended to the status.
              */
-            if (!Objects.requireNonNull(cwdFiles, "There are no trackable"
-                    + "files stored in the working directory.").contains(fileName)) {
-                if (!staging.getToRemove().contains(filePath)
-                        && !staging.getToAdd().containsKey(filePath)) {
-                    status.append(fileName).append(" ").append("(deleted)\n");
+            if (!cwdFile.isFile()) {
+                if (!staging().getToRemove().contains(filePath)
+                        && !staging().getToAdd().containsKey(filePath)) {
+                    status.addModification(fileName, "deleted");
                 }
-                break;
+                continue;
             }
             /*
-             * If the CWD file's blob has a different id than the tracked blob id, then it
-             * also has different contents and is appended to the status..
+             * If the CWD file's blob has different contents than the tracked blob, it is
+             * appended to the status. Blob ids include the path a blob was first stored
+             * under, so a cloned or fetched blob can differ in id alone.
              */
+            Blob cwdBlob = new Blob(cwdFile, gitletDir);
+            Blob trackedBlob = Blob.getBlob(staging().getTracked().get(filePath), gitletDir);
             assert trackedBlob != null;
-            if (!cwdBlob.getId().equals(trackedBlob.getId())) {
-                status.append(fileName).append(" ").append("(modified)\n");
+            if (!cwdBlob.getId().equals(trackedBlob.getId())
+                    && !Arrays.equals(cwdBlob.getContent(), trackedBlob.getContent())) {
+                status.addModification(fileName, "modified");
             }
         }
 
-        status.append("\n=== Untracked Files ===\n");
         /*
          * Finds files in CWD that are not currently being tracked, and are also not
          * staged for addition or removal.
          */
         assert cwdFiles != null;
         for (String file : cwdFiles) {
-            String filePath = getFile(file).getPath();
-            if (!staging.getTracked().containsKey(filePath)) {
-                if (!staging.getToRemove().contains(filePath)
-                        && !staging.getToAdd().containsKey(filePath)) {
-                    status.append(getFile(file).getName()).append("\n");
+            String filePath = getFile(file, workTree).getPath();
+            if (!staging().getTracked().containsKey(filePath)) {
+                if (!staging().getToRemove().contains(filePath)
+                        && !staging().getToAdd().containsKey(filePath)) {
+                    status.addUntracked(getFile(file, workTree).getName());
                 }
             }
         }
-        System.out.println(status);
+        return status;
+    }
+
+    /**
+     * Returns the path of the given file relative to the working directory, as
+     * status lists it.
+     */
+    String displayName(String filePath) {
+        Path path = Paths.get(filePath);
+        if (!path.isAbsolute()) {
+            return filePath;
+        }
+        return workTree.toPath().relativize(path).toString();
     }
 
     /**
@@ -352,38 +469,40 @@ public class Repository {
      */
     public void reset(String commitId) {
         overFiveCharacters(commitId);
-        Commit resetCommit = Commit.getCommit(commitId, GITLET_DIR);
+        Commit resetCommit = Commit.getCommit(commitId, gitletDir);
         if (resetCommit == null) {
             exit("No commit with that id exists.");
         }
         assert resetCommit != null;
         checkForUntracked(resetCommit);
-        checkoutProcesses(resetCommit, staging);
-        Branch b = new Branch(resetCommit.getBranch(), resetCommit);
-        b.save(GITLET_DIR);
-        setHead(resetCommit.getId(), GITLET_DIR);
+        checkoutProcesses(resetCommit);
+        Branch b = new Branch(resetCommit.getBranch(), resetCommit.getId());
+        b.save(gitletDir);
+        setHead(resetCommit.getId(), gitletDir);
     }
 
     /**
      * Merges the given branch with the current one.
-     * Automatically commits the merge after handling cases for staging.
+     * Automatically commits the merge after handling cases for staging, and
+     * returns how the merge ended.
      */
-    public void merge(String branch) {
+    public MergeResult merge(String branch) {
         /*
          * Handles failure cases for when there are uncommited changes, when the given
          * branch does not exist, and when attempting to merge a branch with itself.
          */
         mergeErrors(branch);
 
-        Branch otherBranch = getBranch(branch, GITLET_DIR);
-        Commit head = getHeadCommit(GITLET_DIR);
-        Commit otherHead = otherBranch.getHead();
+        Branch otherBranch = getBranch(branch, gitletDir);
+        Commit head = getHeadCommit(gitletDir);
+        Commit otherHead = otherBranch.getHead(gitletDir);
         checkForUntracked(otherHead);
 
         // Find split point:
-        Map<String, Integer> commonAncestors = getCommonAncestorsDepths(otherHead, getAncestorsDepths(head));
+        Map<String, Integer> commonAncestors = getCommonAncestorsDepths(otherHead,
+                getAncestorsDepths(head, gitletDir), gitletDir);
         String splitId = latestCommonAncestor(commonAncestors);
-        Commit splitCommit = Commit.getCommit(splitId, GITLET_DIR);
+        Commit splitCommit = Commit.getCommit(splitId, gitletDir);
 
         /*
          * Handles cases when the split point is the same commit as the given branch,
@@ -391,9 +510,9 @@ public class Repository {
          */
         if (splitId.equals(otherHead.getId())) {
             exit("Given branch is an ancestor of the current branch.");
-        } else if (splitId.equals(getHeadId(GITLET_DIR))) {
+        } else if (splitId.equals(getHeadId(gitletDir))) {
             checkoutBranch(branch);
-            exit("Current branch fast-forwarded.");
+            return MergeResult.FAST_FORWARDED;
         }
         Map<String, List<String>> allBlobIds = allBlobIds(head, otherHead);
         Map<String, String> headBlobs = head.getTracked();
@@ -401,14 +520,20 @@ public class Repository {
         Map<String, String> splitBlobs = Objects.requireNonNull(splitCommit,
                 "Given branch is not linked to the current branch.").getTracked();
 
+        // A partial repository fetches the blobs the merge reads in one batch.
+        Set<String> neededBlobs = new HashSet<>(headBlobs.values());
+        neededBlobs.addAll(otherBlobs.values());
+        Promisor.fetch(neededBlobs, gitletDir);
+
+        boolean conflicted = false;
         for (String filePath : allBlobIds.keySet()) {
             Blob headBlob = null;
             if (headBlobs.get(filePath) != null) {
-                headBlob = Blob.getBlob(headBlobs.get(filePath), GITLET_DIR);
+                headBlob = Blob.getBlob(headBlobs.get(filePath), gitletDir);
             }
             Blob otherBlob = null;
             if (otherBlobs.get(filePath) != null) {
-                otherBlob = Blob.getBlob(otherBlobs.get(filePath), GITLET_DIR);
+                otherBlob = Blob.getBlob(otherBlobs.get(filePath), gitletDir);
             }
 
             // Sets up conditions for identifying different merge cases.
@@ -425,38 +550,81 @@ public class Repository {
                 // 2. Modified in other but not modified in HEAD: Stage for addition.
                 if (modifiedOther && !modifiedHead) {
                     assert otherBlob != null;
-                    writeContents(otherBlob.getSource(), (Object) otherBlob.getContent());
-                    add(new File(filePath).getName());
+                    mergeTake(filePath, otherBlob);
                 } else if (modifiedHead && modifiedOther) {
                     // 3.1. Modified in other and HEAD, files are the same: keep file. (Do nothing)
                     // 3.2. MERGE CONFLICT: Modified in other and HEAD, files are different.
                     if (!headBlobs.get(filePath).equals(otherBlobs.get(filePath))) {
                         mergeConflict(filePath, headBlob, otherBlob);
+                        conflicted = true;
                     }
                 } else if (modifiedHead && !inOther || modifiedOther && !inHead) {
                     // 3.3. MERGE CONFLICT: Modified in other and deleted from other.
                     // 3.4. MERGE CONFLICT: Modified in head and deleted from other.
                     mergeConflict(filePath, headBlob, otherBlob);
+                    conflicted = true;
                 } else if (!modifiedHead && !inOther) {
                     // 4. Unmodified in HEAD but deleted from other: Stage for removal.
-                    rm(new File(filePath).getName());
+                    staging().remove(new File(filePath));
                 } // 5. Unmodified in other but deleted from HEAD: Remain removed. (Do nothing)
             } else {
                 // 6. Not in split point or other branch, but in HEAD: keep HEAD. (Do nothing)
                 // 7. Not in split point or HEAD, but in other: Stage for addition.
                 if (!inHead && inOther) {
                     assert otherBlob != null;
-                    writeContents(otherBlob.getSource(), (Object) otherBlob.getContent());
-                    add(new File(filePath).getName());
+                    mergeTake(filePath, otherBlob);
                 }
             }
         }
-        String message = "Merged " + branch + " into " + getActiveBranchName(GITLET_DIR) + ".";
+        String message = "Merged " + branch + " into " + getActiveBranchName(gitletDir) + ".";
         commit(message, otherHead.getId());
+        return conflicted ? MergeResult.CONFLICTED : MergeResult.MERGED;
+    }
+
+    /**
+     * Configures which tracked files are materialized in the working directory.
+     * "set" replaces the sparse-checkout patterns, "disable" removes them, and
+     * "list" leaves them. Returns the patterns in effect afterwards. After a
+     * change, files of the head commit are restored or removed to match the
+     * new patterns.
+     */
+    public List<String> sparseCheckout(String action, String[] patterns) {
+        switch (action) {
+            case "list" -> {
+                return List.copyOf(sparse().getPatterns());
+            }
+            case "set" -> {
+                if (patterns.length == 0) {
+                    exit("Please enter a sparse-checkout pattern.");
+                }
+            }
+            case "disable" -> patterns = new String[0];
+            default -> exit("Incorrect operands.");
+        }
+        if (!staging().isClear()) {
+            exit("You have uncommitted changes.");
+        }
+
+        SparseCheckout old = sparse();
+        sparse = new SparseCheckout(workTree, Arrays.asList(patterns));
+        sparse.save(gitletDir);
+        for (Map.Entry<String, String> entry : getHeadCommit(gitletDir).getTracked().entrySet()) {
+            File file = new File(entry.getKey());
+            if (sparse().includes(entry.getKey()) && !file.exists()) {
+                Blob.restore(entry.getValue(), gitletDir, file);
+            } else if (!sparse().includes(entry.getKey()) && old.includes(entry.getKey())
+                    && file.exists()
+                    && entry.getValue().equals(HashAlgorithm.of(gitletDir).hash(file.getPath(),
+                            readContents(file)))) {
+                // Unmodified files leaving the patterns are removed; edits are kept.
+                file.delete();
+            }
+        }
+        return List.copyOf(sparse().getPatterns());
     }
 
     public void addRemote(String remoteName, String filePath) {
-        File remoteFile = join(Repository.REMOTES_DIR, remoteName);
+        File remoteFile = join(remotesDir, remoteName);
         if (remoteFile.exists()) {
             exit("A remote with that name already exists.");
         }
@@ -467,7 +635,7 @@ public class Repository {
      * Removes information associated with the given remote name.
      */
     public void rmRemote(String remoteName) {
-        File remoteFile = join(REMOTES_DIR, remoteName);
+        File remoteFile = join(remotesDir, remoteName);
         if (!remoteFile.exists()) {
             exit("A remote with that name does not exist.");
         }
@@ -478,29 +646,216 @@ public class Repository {
      * Brings commits from the remote repository into the local repository in a
      * branch [remote name]-[branch name].
      */
-    public void fetch(String remoteName, String branchName) {
-        File remoteFile = join(REMOTES_DIR, remoteName);
-        File remotePath = new File(readContentsAsString(remoteFile));
+    public FetchResult fetch(String remoteName, String branchName) {
+        return fetch(remoteName, branchName, 0, false, false);
+    }
+
+    /**
+     * Brings commits from the remote repository into the local repository in a
+     * branch [remote name]-[branch name]. If depth is positive, only the newest
+     * depth generations of the branch are copied, and the commits whose parents
+     * were left out are recorded as the shallow boundary. With deepen, depth
+     * more generations below the current boundary are copied as well. With
+     * blobless, only commits are copied and the remote becomes a promisor
+     * remote, from which blobs are fetched when they are needed.
+     */
+    public FetchResult fetch(String remoteName, String branchName, int depth, boolean deepen,
+            boolean blobless) {
+        FetchResult result = new FetchResult(remoteName);
+        long start = System.nanoTime();
+        result.addFetched(branchName, fetchBranch(remoteName, branchName, depth, deepen,
+                blobless));
+        result.setNanos(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Fetches every branch of every remote, as fetchBranches does.
+     */
+    public List<FetchResult> fetchAll(int depth, boolean deepen, boolean blobless) {
+        Map<String, List<String>> branches = new TreeMap<>();
+        for (String remoteName : Objects.requireNonNull(plainFilenamesIn(remotesDir))) {
+            branches.put(remoteName, remoteBranchNames(remoteName));
+        }
+        return fetchBranches(branches, depth, deepen, blobless);
+    }
+
+    /**
+     * Fetches the given branches of each remote, keyed by remote name, as fetch
+     * does. Up to TRANSFER_THREADS branches are fetched at once; an object that
+     * several of them bring is stored once. Returns for each remote the number
+     * and size of the objects fetched from it and how long that took, and the
+     * branches that failed.
+     */
+    public List<FetchResult> fetchBranches(Map<String, List<String>> branches, int depth,
+            boolean deepen, boolean blobless) {
+        List<FetchResult> fetched = new ArrayList<>();
+        Map<String, List<Future<Journal>>> results = new LinkedHashMap<>();
+        Map<String, Long> started = new ConcurrentHashMap<>();
+        Map<String, Long> finished = new ConcurrentHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(TRANSFER_THREADS);
+        try {
+            for (Map.Entry<String, List<String>> entry : branches.entrySet()) {
+                String remoteName = entry.getKey();
+                List<Future<Journal>> futures = new ArrayList<>();
+                for (String branchName : entry.getValue()) {
+                    futures.add(pool.submit(() -> {
+                        started.merge(remoteName, System.nanoTime(), Math::min);
+                        try {
+                            return fetchBranch(remoteName, branchName, depth, deepen, blobless);
+                        } finally {
+                            finished.merge(remoteName, System.nanoTime(), Math::max);
+                        }
+                    }));
+                }
+                results.put(remoteName, futures);
+            }
+
+            for (Map.Entry<String, List<Future<Journal>>> entry : results.entrySet()) {
+                String remoteName = entry.getKey();
+                List<String> branchNames = branches.get(remoteName);
+                FetchResult result = new FetchResult(remoteName);
+                for (int i = 0; i < branchNames.size(); i++) {
+                    try {
+                        result.addFetched(branchNames.get(i), entry.getValue().get(i).get());
+                    } catch (ExecutionException excp) {
+                        if (!(excp.getCause() instanceof GitletException)) {
+                            throw new IllegalStateException(excp.getCause());
+                        }
+                        result.addFailure(branchNames.get(i), excp.getCause().getMessage());
+                    }
+                }
+                result.setNanos(branchNames.isEmpty() ? 0
+                        : finished.get(remoteName) - started.get(remoteName));
+                fetched.add(result);
+            }
+            return fetched;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted while fetching.");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Fetches a branch as fetch does and returns the journal of the fetch,
+     * which counts the objects it wrote.
+     */
+    private Journal fetchBranch(String remoteName, String branchName, int depth, boolean deepen,
+            boolean blobless) {
+        String remoteBranchName = remoteName + '-' + branchName;
+        String url = remoteUrl(remoteName);
+        if (url != null) {
+            Journal journal = Journal.open(remoteBranchName, gitletDir);
+            try {
+                Transport.fetch(url, branchName, remoteBranchName, depth, deepen, blobless,
+                        journal, gitletDir);
+            } finally {
+                journal.close();
+            }
+            if (blobless) {
+                Promisor.add(remoteName, gitletDir);
+            }
+            return journal;
+        }
+        File bundle = remoteBundle(remoteName);
+        if (bundle != null) {
+            if (depth > 0 || blobless) {
+                exit("Cannot limit a fetch from a bundle.");
+            }
+            Journal journal = Journal.open(remoteBranchName, gitletDir);
+            try {
+                Map<String, String> refs = Bundle.read(bundle, branchName, remoteBranchName,
+                        gitletDir, journal);
+                journal.checkpoint();
+                new Branch(remoteBranchName, refs.get(branchName)).save(gitletDir);
+                journal.finish();
+            } finally {
+                journal.close();
+            }
+            return journal;
+        }
         fetchErrors(remoteName, branchName);
+        File remoteFile = join(remotesDir, remoteName);
+        File remotePath = new File(readContentsAsString(remoteFile));
+        HashAlgorithm.checkSame(gitletDir, remotePath);
+        RepositoryCache remote = RepositoryCache.open(remotePath);
+        try {
+            return fetchFrom(remotePath, remoteName, branchName, depth, deepen, blobless);
+        } finally {
+            remote.close();
+        }
+    }
 
-        // Copy over the commits and blobs:
+    /**
+     * Fetches a branch of the repository remotePath, a directory on this
+     * machine, as fetch does and returns the journal of the fetch.
+     */
+    private Journal fetchFrom(File remotePath, String remoteName, String branchName, int depth,
+            boolean deepen, boolean blobless) {
         String remoteBranchName = remoteName + '-' + branchName;
+
+        // Copy over the commits and blobs:
         Branch remoteBranch = getBranch(branchName, remotePath);
 
-        // Copies over commits and blobs from the remote branch to the current one.
-        Set<Commit> remoteCommits = getAllCommits(remoteBranch.getHead(), remotePath);
-        copyCommitsToLocal(remoteCommits, remoteBranchName);
-        copyBlobsToLocal(remoteCommits, remotePath);
+        /*
+         * Copies over only the commits the local repository does not have, and their
+         * blobs. Commits go oldest first, each after its blobs, so a local commit
+         * always has its blobs and ancestors even if the fetch is interrupted. The
+         * journal records how far an interrupted fetch got.
+         */
+        Journal journal = Journal.open(remoteBranchName, gitletDir);
+        try {
+            List<String> remoteCommits;
+            try {
+                List<String> starts = deepen ? Shallow.deepenStarts(gitletDir) : List.of();
+                remoteCommits = Transport.fetchCommits(remoteBranch.getHeadId(), depth, starts,
+                        remotePath, Transport.localHaves(gitletDir));
+            } catch (IOException excp) {
+                throw error("Could not read the remote: %s", excp.getMessage());
+            }
+            copyObjects(remoteCommits, remoteBranchName, remotePath, gitletDir, !blobless, null,
+                    journal);
+            // The branch only moves once every copied object is on disk.
+            journal.checkpoint();
+            Shallow.update(remoteCommits, gitletDir);
+            if (blobless) {
+                Promisor.add(remoteName, gitletDir);
+            }
 
-        // Updates the head of the locally-stored remote branch.
-        Commit localBranchHead = Commit.getCommit(getHeadId(remotePath), GITLET_DIR);
-        Branch br = new Branch(remoteBranchName, localBranchHead);
-        br.save(GITLET_DIR);
+            // Updates the head of the locally-stored remote branch.
+            Branch br = new Branch(remoteBranchName, remoteBranch.getHeadId());
+            br.save(gitletDir);
+            journal.finish();
+        } finally {
+            journal.close();
+        }
 
         // IF the current branch is the branch that was fetched, also updates HEAD.
-        if (getActiveBranchName(GITLET_DIR).equals(remoteBranchName)) {
-            setHead(getHeadId(GITLET_DIR), remotePath);
+        if (getActiveBranchName(gitletDir).equals(remoteBranchName)) {
+            setHead(getHeadId(gitletDir), remotePath);
+        }
+        return journal;
+    }
+
+    /**
+     * Returns the names of the branches of the given remote.
+     */
+    private List<String> remoteBranchNames(String remoteName) {
+        String url = remoteUrl(remoteName);
+        if (url != null) {
+            return Transport.branchNames(url, gitletDir);
+        }
+        File bundle = remoteBundle(remoteName);
+        if (bundle != null) {
+            return Bundle.branchNames(bundle);
+        }
+        File remotePath = new File(readContentsAsString(join(remotesDir, remoteName)));
+        if (!join(remotePath, "HEAD").isFile()) {
+            exit("Remote directory not found.");
         }
+        return Branch.branchNames(remotePath);
     }
 
     /**
@@ -509,104 +864,324 @@ public class Repository {
      * the history of the current local head
      */
     public void push(String remoteName, String branchName) {
-        File remoteFile = join(REMOTES_DIR, remoteName);
-        File remotePath = new File(readContentsAsString(remoteFile));
-        if (!remoteFile.exists() || !remotePath.exists()) {
+        pushTo(remoteName, branchName, null);
+    }
+
+    /**
+     * Pushes the current branch to the given branch of each of the given
+     * remotes, as push does, up to TRANSFER_THREADS remotes at once. The local
+     * history is walked once and shared by the pushes. Returns for each remote
+     * the number of commits pushed to it, or why its push failed.
+     */
+    public List<PushResult> pushMirrors(List<String> remoteNames, String branchName) {
+        String headId = getHeadId(gitletDir);
+        Map<String, List<String>> parents = new HashMap<>();
+        for (String id : missingCommits(headId, gitletDir, id -> false)) {
+            parents.put(id, Commit.getCommit(id, gitletDir).getParents());
+        }
+        Map<String, Future<Integer>> results = new LinkedHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(TRANSFER_THREADS);
+        try {
+            for (String remoteName : new LinkedHashSet<>(remoteNames)) {
+                results.put(remoteName, pool.submit(() -> pushTo(remoteName, branchName,
+                        parents)));
+            }
+            List<PushResult> pushed = new ArrayList<>();
+            for (Map.Entry<String, Future<Integer>> entry : results.entrySet()) {
+                try {
+                    pushed.add(new PushResult(entry.getKey(), entry.getValue().get(), null));
+                } catch (ExecutionException excp) {
+                    if (!(excp.getCause() instanceof GitletException)) {
+                        throw new IllegalStateException(excp.getCause());
+                    }
+                    pushed.add(new PushResult(entry.getKey(), 0, excp.getCause().getMessage()));
+                }
+            }
+            return pushed;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted while pushing.");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Pushes the current branch to branch branchName of the given remote and
+     * returns the number of commits pushed. If parents is not null, it holds
+     * the parents of every commit in the history of the current branch, and
+     * the history is walked there instead of in the object store.
+     */
+    private int pushTo(String remoteName, String branchName, Map<String, List<String>> parents) {
+        String url = remoteUrl(remoteName);
+        if (url != null) {
+            return Transport.push(url, branchName, getHeadId(gitletDir), gitletDir);
+        }
+        if (remoteBundle(remoteName) != null) {
+            exit("Cannot push to a bundle.");
+        }
+        File remoteFile = join(remotesDir, remoteName);
+        if (!remoteFile.exists() || !new File(readContentsAsString(remoteFile)).exists()) {
             exit("Remote directory not found.");
         }
+        File remotePath = new File(readContentsAsString(remoteFile));
+        HashAlgorithm.checkSame(gitletDir, remotePath);
+        RepositoryCache remote = RepositoryCache.open(remotePath);
+        try {
+            return pushTo(remotePath, branchName, parents);
+        } finally {
+            remote.close();
+        }
+    }
 
-        // Gets all local commit ids starting from the local head commit.
-        Set<Commit> localCommits = getAllCommits(getHeadCommit(GITLET_DIR), GITLET_DIR);
-        Set<String> localCommitIds = new HashSet<>();
-        localCommits.forEach((commitId) -> localCommitIds.add(commitId.getId()));
+    /**
+     * Pushes the current branch to branch branchName of the repository
+     * remotePath, a directory on this machine, as pushTo does.
+     */
+    private int pushTo(File remotePath, String branchName, Map<String, List<String>> parents) {
+        String headId = getHeadId(gitletDir);
 
+        // The remote branch head must be in the history of the local head.
         Branch remoteBranch = getBranch(branchName, remotePath);
-        if (!localCommitIds.contains(getHeadId(remotePath))) {
-            exit("Please pull down remote changes before pushing.");
-        }
-
-        // Gets all remote commit ids starting from the remote head commit.
-        Set<Commit> remoteCommits = getAllCommits(remoteBranch.getHead(), remotePath);
-        Set<String> remoteCommitIds = new HashSet<>();
-        remoteCommits.forEach((commitId) -> remoteCommitIds.add(commitId.getId()));
-
-        // Copies commits and blobs to the remote repository if it is not already there.
-        for (String commitId : localCommitIds) {
-            if (!remoteCommitIds.contains(commitId)) {
-                Commit localCommit = Commit.getCommit(commitId, GITLET_DIR);
-                assert localCommit != null;
-
-                /*
-                 * When copying over commits, changes file paths of tracked blobs to point to
-                 * the remote directory, and not the local one.
-                 */
-                Map<String, String> newTracked = new HashMap<>();
-
-                for (String filePath : localCommit.getTracked().keySet()) {
-                    /*
-                     * Create a new file path pointing to the remote repository for pushed commits
-                     * by replacing old paths with newCommitPath.
-                     */
-                    String localGitlet = GITLET_DIR.getParent();
-                    String remoteGitlet = remoteBranch.getHead().getRepoDir().getPath();
-                    String newCommitPath = filePath.replace(localGitlet, remoteGitlet);
-                    newTracked.put(newCommitPath, localCommit.getTracked().get(filePath));
-
-                    // Also iterates through tracked blobs to replace file paths.
-                    for (String blobPath : localCommit.getTracked().keySet()) {
-                        String blobId = localCommit.getTracked().get(blobPath);
-                        Blob localBlob = Blob.getBlob(blobId, GITLET_DIR);
-                        assert localBlob != null;
-
-                        /*
-                         * Saves a new blob in the remote repository, where the source points
-                         * to a file in the remote repository instead of the current one.
-                         */
-                        if (Blob.getBlob(blobId, remotePath) == null) {
-                            String oldSourcePath = localBlob.getSource().getPath();
-                            String newSourcePath = oldSourcePath.replace(localGitlet, remoteGitlet);
-                            Blob remoteBlob = new Blob(new File(newSourcePath));
-
-                            // Copies the content and id of the local blob to the remote blob.
-                            remoteBlob.setContent(localBlob.getContent());
-                            remoteBlob.setContentString(localBlob.getContentString());
-                            remoteBlob.setId(localBlob.getId());
-                            remoteBlob.save(GITLET_DIR);
-                        }
-                    }
-                }
+        if (remoteBranch != null) {
+            String remoteHeadId = remoteBranch.getHeadId();
+            if (parents != null ? !parents.containsKey(remoteHeadId)
+                    : !isAncestor(remoteHeadId, headId, gitletDir)) {
+                exit("Please pull down remote changes before pushing.");
+            }
+        }
 
-                // Saves commits copied to the remote repository with updated blob paths.
-                Commit remoteCommit = new Commit(localCommit.getMessage(),
-                        localCommit.getParents(), newTracked, localCommit.getTimestamp(),
-                        localCommit.getDepth(), branchName);
-                remoteCommit.setId(localCommit.getId());
-                remoteCommit.save(remotePath);
+        /*
+         * Computes the commits the remote is missing once, then copies them oldest
+         * first, each after its blobs, before moving the remote branch.
+         */
+        List<String> missing = new ArrayList<>();
+        Reachability index = Reachability.read(gitletDir);
+        if (parents != null) {
+            // The history was walked once for every mirror.
+            missing = missingCommits(headId, parents::get,
+                    id -> objectFile(id, remotePath) != null);
+        } else if (index != null && remoteBranch != null) {
+            // The remote has its branch head and everything it reaches.
+            for (String id : index.reachableExcept(headId, remoteBranch.getHeadId(), gitletDir)) {
+                if (objectFile(id, remotePath) == null) {
+                    missing.add(id);
+                }
             }
+        } else {
+            missing = missingCommits(headId, gitletDir, remotePath);
         }
+        Shallow.checkComplete(missing, gitletDir);
+        StringBuilder log = new StringBuilder();
+        copyObjects(missing, branchName, gitletDir, remotePath, true, log, null);
 
         // Updates the head of the remote branch.
-        Branch updatedBranch = new Branch(branchName, getHeadCommit(remotePath));
+        Branch updatedBranch = new Branch(branchName, headId);
         updatedBranch.save(remotePath);
 
         // If the remote active branch is the same as the pushed branch, also updates
         // HEAD.
         if (branchName.equals(getActiveBranchName(remotePath))) {
-            setHead(getHeadId(GITLET_DIR), remotePath);
+            setHead(headId, remotePath);
+        }
+
+        // Adds the pushed commits to the remote global log.
+        appendGlobalLog(log, remotePath);
+        return missing.size();
+    }
+
+    /**
+     * Returns the location of the given remote if it is a gitlet server URL,
+     * or null if it is a directory or there is no such remote.
+     */
+    private String remoteUrl(String remoteName) {
+        File remoteFile = join(remotesDir, remoteName);
+        if (!remoteFile.exists()) {
+            return null;
         }
+        String location = readContentsAsString(remoteFile);
+        return Transport.isUrl(location) ? location : null;
+    }
 
-        // Wipes and rebuilds the remote repository global log.
-        writeContents(join(remotePath, "global log"), "");
-        buildGlobalLog(getInitialCommit(remotePath), remotePath);
+    /**
+     * Returns the bundle file the given remote is located at, or null if it is
+     * not a bundle or there is no such remote.
+     */
+    private File remoteBundle(String remoteName) {
+        File remoteFile = join(remotesDir, remoteName);
+        if (!remoteFile.exists()) {
+            return null;
+        }
+        File location = new File(readContentsAsString(remoteFile));
+        return Bundle.isBundle(location) ? location : null;
     }
 
     /**
      * Fetches the given branch from the remote repository, then merges that branch
      * with the current active branch.
      */
-    public void pull(String remoteName, String branchName) {
+    public MergeResult pull(String remoteName, String branchName) {
         fetch(remoteName, branchName);
-        merge(remoteName + '-' + branchName);
+        return merge(remoteName + '-' + branchName);
+    }
+
+    /**
+     * Creates a new repository in the directory target holding everything in the
+     * repository at source, with source added as the remote "origin", and checks
+     * out source's active branch. Blob object files never change, so they are
+     * hardlinked where the file system allows and copied otherwise; every other
+     * file is copied or written anew, so the two repositories share no file
+     * that either of them changes later. Commits
+     * record the paths of their files, so they are rewritten for target. With
+     * blobless, no blobs are copied besides those of the checked-out files, and
+     * the rest are fetched from origin when they are needed.
+     */
+    public void clone(String source, String target, boolean blobless) {
+        File sourcePath = getFile(source, workTree).getAbsoluteFile();
+        File fromDir = sourcePath.getName().equals(".gitlet") ? sourcePath
+                : join(sourcePath, ".gitlet");
+        if (!join(fromDir, "HEAD").isFile()) {
+            exit("Remote directory not found.");
+        }
+        File toWorkTree = getFile(target, workTree).getAbsoluteFile();
+        String[] existing = toWorkTree.list();
+        if (toWorkTree.exists() && (existing == null || existing.length > 0)) {
+            exit("Destination path already exists and is not an empty directory.");
+        }
+        File toDir = join(toWorkTree, ".gitlet");
+        RepositoryCache from = RepositoryCache.open(fromDir);
+        RepositoryCache to = RepositoryCache.open(toDir);
+        try {
+            copyRepository(fromDir, toDir, blobless);
+        } finally {
+            to.close();
+            from.close();
+        }
+    }
+
+    /**
+     * Makes the repository toDir a clone of the repository fromDir, as clone
+     * does.
+     */
+    private static void copyRepository(File fromDir, File toDir, boolean blobless) {
+        File fromWorkTree = fromDir.getParentFile();
+        File toWorkTree = toDir.getParentFile();
+        join(toDir, "objects").mkdirs();
+        join(toDir, "branches").mkdir();
+        join(toDir, "remotes").mkdir();
+        HashAlgorithm.of(fromDir).save(toDir);
+
+        List<File> objectFiles = new ArrayList<>();
+        for (String folder : Objects.requireNonNull(directoriesIn(join(fromDir, "objects")))) {
+            join(toDir, "objects", folder).mkdir();
+            for (String name : Objects.requireNonNull(plainFilenamesIn(
+                    join(fromDir, "objects", folder)))) {
+                if (ObjectId.isId(folder + name)) {
+                    objectFiles.add(join(fromDir, "objects", folder, name));
+                }
+            }
+        }
+        // Object files are independent of each other, so they are cloned in parallel.
+        objectFiles.parallelStream().forEach(objectFile -> {
+            String id = objectFile.getParentFile().getName() + objectFile.getName();
+            Commit c = Blob.isRaw(objectFile) ? null : Commit.getCommit(id, fromDir);
+            if (c != null) {
+                c.rebase(c.getBranch(), fromWorkTree, toWorkTree).save(toDir);
+            } else if (!blobless) {
+                linkOrCopy(objectFile, join(toDir, "objects", id.substring(0, 2), id.substring(2)));
+            }
+        });
+
+        for (String name : Branch.branchNames(fromDir)) {
+            Branch.readBranch(name, fromDir).save(toDir);
+        }
+        // These files change as each repository is used, so they are copied, never linked.
+        for (String file : List.of("global log", "shallow")) {
+            if (join(fromDir, file).exists()) {
+                copy(join(fromDir, file), join(toDir, file));
+            }
+        }
+        writeContents(join(toDir, "remotes", "origin"), fromDir.getPath());
+        if (blobless) {
+            Promisor.add("origin", toDir);
+        }
+        String activeBranch = getActiveBranchName(fromDir);
+        writeContents(join(toDir, "branches", "active branch"), activeBranch);
+        String headId = Branch.readBranch(activeBranch, fromDir).getHeadId();
+        setHead(headId, toDir);
+
+        // Checks out the active branch and starts with a clean staging area.
+        Commit head = Commit.getCommit(headId, toDir);
+        assert head != null;
+        Promisor.fetch(head.getTracked().values(), toDir);
+        for (Map.Entry<String, String> entry : head.getTracked().entrySet()) {
+            Blob.restore(entry.getValue(), toDir, new File(entry.getKey()));
+        }
+        Staging s = new Staging(toDir);
+        s.setTracked(head.getTracked());
+        s.setInitialId(getInitialCommit(fromDir).getId());
+        writeContents(join(toDir, "staging"), (Object) s.encode(toDir));
+    }
+
+    /**
+     * Hardlinks target to source, or copies source to target if the file system
+     * cannot link them.
+     */
+    private static void linkOrCopy(File source, File target) {
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+        } catch (UnsupportedOperationException | IOException excp) {
+            copy(source, target);
+        }
+    }
+
+    /**
+     * Copies source to target for a clone.
+     */
+    private static void copy(File source, File target) {
+        try {
+            Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("Could not clone %s: %s", source.getPath(), excp.getMessage());
+        }
+    }
+
+    /**
+     * Writes the history of the given branch to the bundle file, leaving out
+     * the commit sinceId and its ancestors if it is not null.
+     */
+    public void bundleCreate(String file, String branchName, String sinceId) {
+        if (!Branch.exists(branchName, gitletDir)) {
+            exit("A branch with that name does not exist.");
+        }
+        String since = null;
+        if (sinceId != null) {
+            Commit c = Commit.getCommit(sinceId, gitletDir);
+            if (c == null) {
+                exit("No commit with that id exists.");
+            }
+            since = c.getId();
+        }
+        Bundle.create(getFile(file, workTree), branchName, since, gitletDir);
+    }
+
+    /**
+     * Reads the objects of the bundle file into the repository and returns the
+     * head of each branch it holds, keyed by branch name.
+     */
+    public Map<String, String> unbundle(String file) {
+        if (!Bundle.isBundle(getFile(file, workTree))) {
+            exit("Bundle file not found.");
+        }
+        return Bundle.read(getFile(file, workTree), null, null, gitletDir, null);
+    }
+
+    /**
+     * Writes the reachability bitmaps of the commit graph, which speed up
+     * ancestry checks and push, and returns the index written.
+     */
+    Reachability writeBitmaps() {
+        return Reachability.write(gitletDir);
     }
 
     /* OTHER HELPER METHODS */
@@ -615,16 +1190,64 @@ public class Repository {
      * Checks if the initial Gitlet directory does not exist.
      */
     public void exists() {
-        if (!GITLET_DIR.exists()) {
+        if (!gitletDir.exists()) {
             exit("Not in an initialized Gitlet directory.");
         }
     }
 
+    /**
+     * Error handling for when a commit is being checked out. If an untracked file
+     * will be modified or removed by the checkout, displays an error message.
+     * Files outside the sparse-checkout patterns are never written, so they are
+     * not checked.
+     */
+    private void checkForUntracked(Commit c) {
+        Map<String, String> headTracked = getHeadCommit(gitletDir).getTracked();
+        for (String filePath : c.getTracked().keySet()) {
+            if (!sparse().includes(filePath)) {
+                continue;
+            }
+            if (!headTracked.containsKey(filePath) && new File(filePath).exists()) {
+                exit("There is an untracked file in the way; delete it, "
+                        + "or add and commit it first.");
+            }
+        }
+    }
+
+    /**
+     * Handler for checkout: restores tracked files, deletes untracked files, clears
+     * the staging area, and points the tracked map to tracked files in the given
+     * commit. Saves the staging area and sets the branch head to the given commit.
+     */
+    private void checkoutProcesses(Commit c) {
+        c.restoreTrackedFiles(sparse(), gitletDir);
+        c.deleteUntrackedFiles(sparse(), gitletDir);
+        staging().clear();
+        staging().setTracked(c.getTracked());
+        staging().save();
+        setHead(c.getId(), gitletDir);
+    }
+
+    /**
+     * Stages the given branch's version of a file during a merge. Files outside
+     * the sparse-checkout patterns are staged from the object store without
+     * being written to the working directory.
+     */
+    public void mergeTake(String filePath, Blob otherBlob) {
+        if (!sparse().includes(filePath)) {
+            staging().stage(filePath, otherBlob.getId());
+            return;
+        }
+        File file = new File(filePath);
+        file.getParentFile().mkdirs();
+        writeContents(file, (Object) otherBlob.getContent());
+        staging().add(file);
+    }
+
     /**
      * Handles file overwriting in the case of a merge conflict.
      */
     public void mergeConflict(String filePath, Blob headBlob, Blob otherBlob) {
-        System.out.println("Encountered a merge conflict.");
         StringBuilder contents = new StringBuilder();
         contents.append("<<<<<<< HEAD\n");
         if (headBlob != null) {
@@ -635,39 +1258,56 @@ public class Repository {
             contents.append(otherBlob.getContentString());
         }
         contents.append(">>>>>>>\n");
-        assert headBlob != null;
-        writeContents(headBlob.getSource(), contents.toString());
-        add(new File(filePath).getName());
+        File file = new File(filePath);
+        file.getParentFile().mkdirs();
+        writeContents(file, contents.toString());
+        staging().add(file);
     }
 
-    public void copyCommitsToLocal(Set<Commit> remoteCommits, String branchName) {
-        for (Commit c : remoteCommits) {
-            Map<String, String> newTracked = new HashMap<>();
-            for (String filePath : c.getTracked().keySet()) {
-                String newFilePath = filePath.replace(new File(filePath).getParent(),
-                        GITLET_DIR.getParent());
-                newTracked.put(newFilePath, c.getTracked().get(filePath));
+    /**
+     * Copies the given commits of repository fromDir, listed parents first, into
+     * repository toDir on branch branchName. Each commit is copied right after
+     * the blobs it tracks that toDir does not have yet, so toDir never has a
+     * commit without its blobs, unless blobs is false and only commits are
+     * copied. Commits are read one at a time, so memory use does not grow with
+     * the length of the history. If log is not null, the global log entry of
+     * each copied commit is appended to it. If journal is not null, every object
+     * copied is recorded in it.
+     */
+    public void copyObjects(List<String> commitIds, String branchName, File fromDir, File toDir,
+            boolean blobs, StringBuilder log, Journal journal) {
+        File fromWorkTree = fromDir.getParentFile();
+        File toWorkTree = toDir.getParentFile();
+        ObjectIdSet copied = new ObjectIdSet();
+        for (String id : commitIds) {
+            Commit c = Commit.getCommit(id, fromDir);
+            assert c != null;
+            for (String blobId : c.getTracked().values()) {
+                if (!blobs || !copied.add(blobId)) {
+                    continue;
+                }
+                boolean stored = false;
+                synchronized (objectLock(blobId)) {
+                    if (objectFile(blobId, toDir) == null) {
+                        stored = Blob.copy(blobId, fromDir, toDir);
+                    }
+                }
+                if (stored && journal != null) {
+                    journal.written(blobId, false);
+                }
             }
-            List<String> newParents = c.getParents();
-            Commit localCommit = new Commit(c.getMessage(), newParents, newTracked,
-                    c.getTimestamp(), c.getDepth(), branchName);
-            localCommit.setId(c.getId());
-            localCommit.save(GITLET_DIR);
-        }
-    }
-
-    public void copyBlobsToLocal(Set<Commit> remoteCommits, File remotePath) {
-        Set<Blob> remoteBlobs = getAllBlobs(remoteCommits, remotePath);
-        for (Blob b : remoteBlobs) {
-            if (Blob.getBlob(b.getId(), GITLET_DIR) == null) {
-                String oldSourcePath = b.getSource().getParent();
-                String newPath = b.getSource().getPath().replace(oldSourcePath,
-                        GITLET_DIR.getParent());
-                Blob localBlob = new Blob(new File(newPath));
-                localBlob.setContent(b.getContent());
-                localBlob.setContentString(b.getContentString());
-                localBlob.setId(b.getId());
-                localBlob.save(GITLET_DIR);
+            // Another fetch running at once may have stored the commit already.
+            synchronized (objectLock(id)) {
+                if (objectFile(id, toDir) != null) {
+                    continue;
+                }
+                c.rebase(branchName, fromWorkTree, toWorkTree).save(toDir);
+            }
+            if (journal != null) {
+                journal.written(id, true);
+            }
+            if (log != null) {
+                log.append(globalLogEntry(c));
             }
         }
     }
@@ -679,7 +1319,7 @@ public class Repository {
             overFiveCharacters(secondParentId);
         }
 
-        if (staging.isClear()) {
+        if (staging().isClear()) {
             exit("No changes added to the commit.");
         }
 
@@ -689,25 +1329,23 @@ public class Repository {
     }
 
     public void mergeErrors(String branch) {
-        if (!staging.isClear()) {
+        if (!staging().isClear()) {
             exit("You have uncommitted changes.");
-        } else if (!join(Repository.BRANCHES_DIR, branch).exists()) {
+        } else if (!Branch.exists(branch, gitletDir)) {
             exit("A branch with that name does not exist.");
-        } else if (branch.equals(getActiveBranchName(GITLET_DIR))) {
+        } else if (branch.equals(getActiveBranchName(gitletDir))) {
             exit("Cannot merge a branch with itself.");
         }
     }
 
     public void fetchErrors(String remoteName, String branchName) {
-        File remoteFile = join(REMOTES_DIR, remoteName);
-        File remotePath = new File(readContentsAsString(remoteFile));
-        if (!remoteFile.exists() || !remotePath.exists()) {
+        File remoteFile = join(remotesDir, remoteName);
+        if (!remoteFile.exists() || !new File(readContentsAsString(remoteFile)).exists()) {
             exit("Remote directory not found.");
         }
 
-        File remoteBranches = join(remotePath, "branches");
-        if (!Objects.requireNonNull(plainFilenamesIn(remoteBranches),
-                "That remote does not have that branch.").contains(branchName)) {
+        File remotePath = new File(readContentsAsString(remoteFile));
+        if (!Branch.exists(branchName, remotePath)) {
             exit("That remote does not have that branch.");
         }
     }
@@ -0,0 +1,186 @@
+package gitlet;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * The state of one repository that is kept in memory between commands: the
+ * commits read so far, its path table, object format, shallow boundary and
+ * reachability index. Each Repository opens the cache of its .gitlet
+ * directory, and commands open the caches of the other repositories they
+ * read, like the source of a clone or the remote of a local fetch. A cache is
+ * shared by everyone who has it open and is dropped when the last of them
+ * closes it, so a long-lived JVM holds state only for the repositories it is
+ * using. A repository that is read without being opened gets an empty cache
+ * for each call.
+ *
+ * @author Jonathan Lu
+ */
+
+final class RepositoryCache implements AutoCloseable {
+
+    // Number of tracked files, summed over the cached commits, that a cache
+    // keeps in memory. Bounding files rather than commits keeps large trees
+    // from exhausting the heap.
+    private static final long COMMIT_WEIGHT = 1 << 20;
+
+    // Caches that are open, keyed by the path of their .gitlet directory.
+    private static final Map<String, RepositoryCache> OPEN = new HashMap<>();
+
+    private final File gitletDir;
+    private final String key;
+    // Number of times this cache was opened and not yet closed.
+    private int openCount = 0;
+
+    // Recently read commits, keyed by the path of their object file.
+    private final LinkedHashMap<String, Commit> commits = new LinkedHashMap<>(16, 0.75f, true);
+    private long commitWeight = 0;
+    private PathTable paths;
+    private HashAlgorithm format;
+    private Set<String> boundary;
+    private Reachability index;
+
+    private RepositoryCache(File gitletDir, String key) {
+        this.gitletDir = gitletDir;
+        this.key = key;
+    }
+
+    /**
+     * Opens the cache of repository gitletDir, which must be closed when the
+     * caller is done with the repository.
+     */
+    static RepositoryCache open(File gitletDir) {
+        String key = key(gitletDir);
+        synchronized (OPEN) {
+            RepositoryCache cache = OPEN.computeIfAbsent(key,
+                    k -> new RepositoryCache(new File(k), k));
+            cache.openCount += 1;
+            return cache;
+        }
+    }
+
+    /**
+     * Returns the cache of repository gitletDir if it is open, or else an
+     * empty cache that nothing else shares.
+     */
+    static RepositoryCache of(File gitletDir) {
+        String key = key(gitletDir);
+        synchronized (OPEN) {
+            RepositoryCache cache = OPEN.get(key);
+            return cache != null ? cache : new RepositoryCache(new File(key), key);
+        }
+    }
+
+    private static String key(File gitletDir) {
+        return gitletDir.toPath().toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Closes this cache, dropping it if nobody else has it open.
+     */
+    @Override
+    public void close() {
+        synchronized (OPEN) {
+            if (openCount == 0 || --openCount > 0) {
+                return;
+            }
+            OPEN.remove(key);
+        }
+        clear();
+    }
+
+    /**
+     * Drops all state read so far, so it is read again on next use. Used when
+     * the repository may have been changed by another process.
+     */
+    synchronized void clear() {
+        commits.clear();
+        commitWeight = 0;
+        paths = null;
+        format = null;
+        boundary = null;
+        index = null;
+    }
+
+    /**
+     * Returns the .gitlet directory of the repository.
+     */
+    File gitletDir() {
+        return gitletDir;
+    }
+
+    /* COMMITS */
+
+    /**
+     * Returns the commit read from the object file at path, or null if it is
+     * not cached.
+     */
+    synchronized Commit commit(String path) {
+        return commits.get(path);
+    }
+
+    /**
+     * Caches commit c read from the object file at path, evicting the least
+     * recently used commits while the cache holds more than COMMIT_WEIGHT
+     * tracked files.
+     */
+    synchronized void remember(String path, Commit c) {
+        Commit old = commits.put(path, c);
+        if (old != null) {
+            commitWeight -= old.getTracked().size() + 1;
+        }
+        commitWeight += c.getTracked().size() + 1;
+        Iterator<Commit> eldest = commits.values().iterator();
+        while (commitWeight > COMMIT_WEIGHT && commits.size() > 1) {
+            commitWeight -= eldest.next().getTracked().size() + 1;
+            eldest.remove();
+        }
+    }
+
+    /* OTHER REPOSITORY STATE */
+
+    /**
+     * Returns the path table, reading it anew if its file was replaced since
+     * it was read.
+     */
+    synchronized PathTable paths() {
+        if (paths == null || !paths.isCurrent()) {
+            paths = new PathTable(gitletDir);
+        }
+        return paths;
+    }
+
+    /**
+     * Returns the object format, or null if it has not been read.
+     */
+    synchronized HashAlgorithm format() {
+        return format;
+    }
+
+    synchronized void setFormat(HashAlgorithm format) {
+        this.format = format;
+    }
+
+    /**
+     * Returns the ids of the shallow boundary commits, or null if they have
+     * not been read.
+     */
+    synchronized Set<String> boundary() {
+        return boundary;
+    }
+
+    synchronized void setBoundary(Set<String> boundary) {
+        this.boundary = boundary;
+    }
+
+    /**
+     * Returns the reachability index last read, or null if none has been.
+     */
+    synchronized Reachability index() {
+        return index;
+    }
+
+    synchronized void setIndex(Reachability index) {
+        this.index = index;
+    }
+}
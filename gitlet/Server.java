@@ -0,0 +1,218 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static gitlet.Utils.*;
+
+/**
+ * Serves the repositories below the directory it is started in to clients
+ * connecting over TCP (see Transport for the protocol). Each connection is
+ * handled on its own pooled thread, so many fetches run at once. Objects are
+ * written with atomic renames, and pushes to the same repository move its
+ * branches one at a time.
+ *
+ * @author Jonathan Lu
+ */
+
+public class Server {
+
+    // Directory whose repositories are served.
+    private final File root;
+    // Locks held while moving the branches of each repository, keyed by its .gitlet path.
+    private final Map<String, Object> refLocks = new ConcurrentHashMap<>();
+
+    public Server(File root) {
+        this.root = root.getAbsoluteFile();
+    }
+
+    /**
+     * Accepts connections on the given port of the given local address until
+     * the process is stopped. Clients are not authenticated, so serve binds
+     * to the loopback address unless another one is given.
+     */
+    public void serve(int port, InetAddress address) {
+        ExecutorService pool = Executors.newCachedThreadPool();
+        try (ServerSocket server = new ServerSocket(port, 0, address)) {
+            System.out.println("Serving " + root + " on " + address.getHostAddress() + " port "
+                    + server.getLocalPort() + ".");
+            while (true) {
+                Socket client = server.accept();
+                pool.execute(() -> handle(client));
+            }
+        } catch (IOException excp) {
+            throw error("Could not run the server: %s", excp.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Reads a client's request, advertises the requested repository's branches
+     * and runs the requested service.
+     */
+    private void handle(Socket client) {
+        try (client) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(client.getInputStream(), 64 * 1024));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(client.getOutputStream(), 64 * 1024));
+            if (in.readInt() != Transport.PROTOCOL_MAGIC) {
+                return;
+            }
+            String service = in.readUTF();
+            File gitletDir = repository(in.readUTF());
+            if (gitletDir == null) {
+                out.writeBoolean(false);
+                out.writeUTF("Remote directory not found.");
+                out.flush();
+                return;
+            }
+            RepositoryCache cache = RepositoryCache.open(gitletDir);
+            try {
+                runService(service, gitletDir, in, out);
+            } finally {
+                cache.close();
+            }
+        } catch (EOFException excp) {
+            // The client hung up, for example after reading the branches it wanted.
+        } catch (IOException | GitletException excp) {
+            System.err.println("Connection from " + client.getRemoteSocketAddress()
+                    + " failed: " + excp.getMessage());
+        }
+    }
+
+    /**
+     * Advertises the branches of repository gitletDir and runs the given
+     * service for the client.
+     */
+    private void runService(String service, File gitletDir, DataInputStream in,
+            DataOutputStream out) throws IOException {
+        out.writeBoolean(true);
+        List<String> names = Branch.branchNames(gitletDir);
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+            out.writeUTF(Branch.readBranch(name, gitletDir).getHeadId());
+        }
+        out.flush();
+
+        if (service.equals(Transport.UPLOAD_PACK)) {
+            uploadPack(gitletDir, in, out);
+        } else if (service.equals(Transport.RECEIVE_PACK)) {
+            receivePack(gitletDir, in, out);
+        } else if (service.equals(Transport.UPLOAD_BLOBS)) {
+            uploadBlobs(gitletDir, in, out);
+        }
+    }
+
+    /**
+     * Sends the client the commits and blobs it lacks of the history of the
+     * commit it asks for, limited to the depth it asks for. A partial client
+     * asks for no blobs.
+     */
+    private void uploadPack(File gitletDir, DataInputStream in, DataOutputStream out)
+            throws IOException {
+        String want = Pack.readId(in, gitletDir);
+        int depth = in.readInt();
+        List<String> starts = new ArrayList<>();
+        for (int count = in.readInt(); count > 0; count--) {
+            starts.add(Pack.readId(in, gitletDir));
+        }
+        boolean blobless = in.readBoolean();
+        if (objectFile(want, gitletDir) == null) {
+            return;
+        }
+        Transport.Haves client = ids -> Transport.askHaves(in, out, ids);
+        List<String> missing = Transport.fetchCommits(want, depth, starts, gitletDir, client);
+        Set<String> blobs = Transport.negotiateBlobs(blobless ? List.of() : missing,
+                gitletDir, client);
+        Pack.write(missing, blobs, gitletDir, out);
+    }
+
+    /**
+     * Sends a partial client the blobs it asks for.
+     */
+    private void uploadBlobs(File gitletDir, DataInputStream in, DataOutputStream out)
+            throws IOException {
+        List<String> blobIds = new ArrayList<>();
+        for (int count = in.readInt(); count > 0; count--) {
+            blobIds.add(Pack.readId(in, gitletDir));
+        }
+        Pack.writeBlobs(blobIds, gitletDir, out);
+    }
+
+    /**
+     * Receives the objects of a push and moves the pushed branch, unless the
+     * branch moved since it was advertised to the client.
+     */
+    private void receivePack(File gitletDir, DataInputStream in, DataOutputStream out)
+            throws IOException {
+        String branchName = in.readUTF();
+        if (!Branch.isValidName(branchName)) {
+            throw error("Invalid branch name: %s", branchName);
+        }
+        String oldId = in.readUTF();
+        if (!oldId.isEmpty()) {
+            Pack.checkId(oldId, gitletDir);
+        }
+        String newId = Pack.readId(in, gitletDir);
+        Transport.answerHaves(in, out, gitletDir);
+        Transport.answerHaves(in, out, gitletDir);
+        StringBuilder log = new StringBuilder();
+        Pack.read(in, branchName, gitletDir, log, null);
+        appendGlobalLog(log, gitletDir);
+
+        String message = null;
+        synchronized (refLocks.computeIfAbsent(gitletDir.getPath(), path -> new Object())) {
+            Branch current = Branch.readBranch(branchName, gitletDir);
+            String currentId = current == null ? "" : current.getHeadId();
+            if (objectFile(newId, gitletDir) == null) {
+                message = "The pushed commit did not arrive.";
+            } else if (!currentId.equals(oldId)) {
+                message = "Please pull down remote changes before pushing.";
+            } else {
+                new Branch(branchName, newId).save(gitletDir);
+                if (branchName.equals(getActiveBranchName(gitletDir))) {
+                    setHead(newId, gitletDir);
+                }
+            }
+        }
+        out.writeBoolean(message == null);
+        if (message != null) {
+            out.writeUTF(message);
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns the .gitlet directory of the repository at path below the root,
+     * given either as the repository's working directory or its .gitlet
+     * directory, or null if there is no such repository.
+     */
+    private File repository(String path) {
+        File dir = new File(root, path).toPath().normalize().toFile();
+        if (!dir.toPath().startsWith(root.toPath())) {
+            return null;
+        }
+        if (!dir.getName().equals(".gitlet")) {
+            dir = join(dir, ".gitlet");
+        }
+        return join(dir, "HEAD").isFile() ? dir : null;
+    }
+}
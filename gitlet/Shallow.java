@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Tracks the boundary of a shallow repository: the commits whose parents were
+ * left out by a fetch with a depth limit. Their ids are stored one per line in
+ * the shallow file of the .gitlet directory. Commit.getParents reports no
+ * parents for a boundary commit, so walks over the history treat it as a root.
+ *
+ * @author Jonathan Lu
+ */
+
+public class Shallow {
+
+    /**
+     * Returns the ids of the boundary commits of repository gitletDir.
+     */
+    static Set<String> read(File gitletDir) {
+        return new TreeSet<>(boundary(RepositoryCache.of(gitletDir)));
+    }
+
+    /**
+     * Returns true if commit id is a boundary commit of repository gitletDir.
+     */
+    static boolean isBoundary(String id, File gitletDir) {
+        return boundary(RepositoryCache.of(gitletDir)).contains(id);
+    }
+
+    /**
+     * Updates the boundary of repository gitletDir after the given commits were
+     * added to it: each of them whose parents are not all present becomes a
+     * boundary commit, and boundary commits whose parents have all arrived stop
+     * being one.
+     */
+    static void update(Collection<String> addedIds, File gitletDir) {
+        RepositoryCache cache = RepositoryCache.of(gitletDir);
+        synchronized (cache) {
+            Set<String> candidates = new LinkedHashSet<>(boundary(cache));
+            candidates.addAll(addedIds);
+            Set<String> updated = new TreeSet<>();
+            for (String id : candidates) {
+                Commit c = Commit.getCommit(id, gitletDir);
+                assert c != null;
+                for (String parentId : c.getRecordedParents()) {
+                    if (Utils.objectFile(parentId, gitletDir) == null) {
+                        updated.add(id);
+                        break;
+                    }
+                }
+            }
+            if (updated.equals(boundary(cache))) {
+                return;
+            }
+            File shallowFile = Utils.join(gitletDir, "shallow");
+            // Moving the boundary changes the parents of commits, so old bitmaps are wrong.
+            Reachability.delete(gitletDir);
+            if (updated.isEmpty()) {
+                shallowFile.delete();
+            } else {
+                Utils.writeContents(shallowFile, String.join("\n", updated) + "\n");
+            }
+            cache.setBoundary(updated);
+        }
+    }
+
+    /**
+     * Returns the ids of the commits that a fetch deepening repository
+     * gitletDir starts from: the parents of its boundary commits that it lacks.
+     */
+    static List<String> deepenStarts(File gitletDir) {
+        List<String> starts = new ArrayList<>();
+        for (String id : read(gitletDir)) {
+            for (String parentId : Commit.getCommit(id, gitletDir).getRecordedParents()) {
+                if (Utils.objectFile(parentId, gitletDir) == null && !starts.contains(parentId)) {
+                    starts.add(parentId);
+                }
+            }
+        }
+        return starts;
+    }
+
+    /**
+     * Ends the current command if any of the given commits of repository
+     * gitletDir is a boundary commit, since the receiving repository would get
+     * a commit without its parents.
+     */
+    static void checkComplete(List<String> commitIds, File gitletDir) {
+        Set<String> boundary = read(gitletDir);
+        for (String id : commitIds) {
+            if (boundary.contains(id)) {
+                Utils.exit("Cannot push history that a shallow fetch left out.");
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the boundary commits held by cache, reading them from
+     * the shallow file on first use.
+     */
+    private static Set<String> boundary(RepositoryCache cache) {
+        synchronized (cache) {
+            Set<String> ids = cache.boundary();
+            if (ids == null) {
+                ids = new TreeSet<>();
+                File shallowFile = Utils.join(cache.gitletDir(), "shallow");
+                if (shallowFile.exists()) {
+                    for (String line : Utils.readContentsAsString(shallowFile).split("\n")) {
+                        if (!line.isBlank()) {
+                            ids.add(line.trim());
+                        }
+                    }
+                }
+                cache.setBoundary(ids);
+            }
+            return ids;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents the sparse-checkout configuration of a gitlet repository.
+ * Patterns are globs matched against paths relative to the working directory,
+ * stored one per line in the sparse-checkout file. Patterns beginning with '!'
+ * exclude paths, and a pattern matching a directory matches everything in it.
+ * A path is materialized if it matches an include pattern (or there are none)
+ * and matches no exclude pattern.
+ *
+ * @author Jonathan Lu
+ */
+
+public class SparseCheckout {
+
+    private final File workTree;
+    private final List<String> patterns;
+    private final List<PathMatcher> includes;
+    private final List<PathMatcher> excludes;
+
+    /**
+     * Creates the sparse-checkout configuration for the given patterns.
+     */
+    public SparseCheckout(File workTree, List<String> patterns) {
+        this.workTree = workTree;
+        this.patterns = patterns;
+        this.includes = new ArrayList<>();
+        this.excludes = new ArrayList<>();
+        for (String pattern : patterns) {
+            if (pattern.startsWith("!")) {
+                excludes.add(matcher(pattern.substring(1)));
+            } else {
+                includes.add(matcher(pattern));
+            }
+        }
+    }
+
+    /**
+     * Returns the sparse-checkout configuration of repository gitletDir. If the
+     * repository has no sparse-checkout file, every path is included.
+     */
+    public static SparseCheckout readSparseCheckout(File gitletDir) {
+        File sparseFile = Utils.join(gitletDir, "sparse-checkout");
+        List<String> patterns = new ArrayList<>();
+        if (sparseFile.exists()) {
+            for (String line : Utils.readContentsAsString(sparseFile).split("\n")) {
+                String pattern = line.trim();
+                if (!pattern.isEmpty() && !pattern.startsWith("#")) {
+                    patterns.add(pattern);
+                }
+            }
+        }
+        return new SparseCheckout(gitletDir.getParentFile(), patterns);
+    }
+
+    /**
+     * Returns true if the file at filePath should exist in the working directory.
+     */
+    public boolean includes(String filePath) {
+        if (patterns.isEmpty()) {
+            return true;
+        }
+        Path relative = workTree.toPath().relativize(new File(filePath).toPath());
+        return (includes.isEmpty() || matchesAny(includes, relative))
+                && !matchesAny(excludes, relative);
+    }
+
+    /**
+     * Saves the patterns to the sparse-checkout file, or deletes the file if
+     * there are no patterns.
+     */
+    public void save(File gitletDir) {
+        File sparseFile = Utils.join(gitletDir, "sparse-checkout");
+        if (patterns.isEmpty()) {
+            sparseFile.delete();
+        } else {
+            Utils.writeContents(sparseFile, String.join("\n", patterns) + "\n");
+        }
+    }
+
+    /**
+     * Returns true if a matcher matches the relative path or one of its parents.
+     */
+    private static boolean matchesAny(List<PathMatcher> matchers, Path relative) {
+        for (Path p = relative; p != null; p = p.getParent()) {
+            for (PathMatcher m : matchers) {
+                if (m.matches(p)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static PathMatcher matcher(String pattern) {
+        String glob = pattern.endsWith("/") ? pattern.substring(0, pattern.length() - 1) : pattern;
+        return FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    }
+
+    public boolean isEnabled() {
+        return !patterns.isEmpty();
+    }
+
+    public List<String> getPatterns() {
+        return patterns;
+    }
+}
@@ -9,32 +9,91 @@ import java.util.Set;
 
 /**
  * Represents a gitlet staging object. Commits are hashed using message,
- * parents, tracked, and timestamp.
+ * parents, tracked, and timestamp. The staging file holds the binary form
+ * written by encode (see Codec), with its paths numbered by the repository's
+ * PathTable; one written by an older version of Gitlet is Java-serialized and
+ * is still readable.
  *
  * @author Jonathan Lu
  */
 
 public class Staging implements Serializable {
 
+    // Matches the serialized form written by older versions of Gitlet.
+    private static final long serialVersionUID = -1482000200873672808L;
+
+    // Names staging records in the binary format (see Codec).
+    private static final String RECORD_TYPE = "GLS";
+
     private final Map<String, String> toAdd;
     private final Set<String> toRemove;
     private Map<String, String> tracked;
     private String initialId;
+    // The repository whose staging file this staging area is saved to.
+    private transient File gitletDir;
+    // When true, save only marks the staging area as changed until flush.
+    private transient boolean deferSaves;
+    private transient boolean changed;
 
     /**
-     * Constructs the staging area.
+     * Constructs the staging area of repository gitletDir.
      */
-    public Staging() {
+    public Staging(File gitletDir) {
+        this.gitletDir = gitletDir;
         this.tracked = new HashMap<>();
         this.toAdd = new HashMap<>();
         this.toRemove = new HashSet<>();
     }
 
     /**
-     * Returns the staging object stored in the serialized staging file.
+     * Returns the staging object stored in the staging file of repository
+     * gitletDir.
+     */
+    public static Staging readStaging(File gitletDir) {
+        return decode(Utils.readContents(Utils.join(gitletDir, "staging")), gitletDir);
+    }
+
+    /**
+     * Returns the binary form of this staging area, with its paths numbered by
+     * the path table of repository gitletDir.
+     */
+    byte[] encode(File gitletDir) {
+        PathTable paths = PathTable.of(gitletDir);
+        Codec.Writer out = new Codec.Writer(Codec.magic(RECORD_TYPE, Codec.PATH_TABLE_FORMAT));
+        out.writeId(initialId);
+        out.writePathIds(tracked, paths);
+        out.writePathIds(toAdd, paths);
+        out.writePathIdSet(toRemove, paths);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the staging area of repository gitletDir stored as data, in the
+     * binary form or Java-serialized, or null if data does not hold one.
      */
-    public static Staging readStaging() {
-        return Utils.readObject(Repository.STAGING_FILE, Staging.class);
+    static Staging decode(byte[] data, File gitletDir) {
+        int format = Codec.version(data, RECORD_TYPE);
+        if (format < 0) {
+            Staging s = Codec.readLegacy(data, Staging.class);
+            if (s != null) {
+                s.gitletDir = gitletDir;
+            }
+            return s;
+        }
+        Codec.Reader in = new Codec.Reader(data);
+        Staging s = new Staging(gitletDir);
+        s.initialId = in.readId();
+        if (format == Codec.FULL_PATH_FORMAT) {
+            s.tracked = in.readPathMap();
+            s.toAdd.putAll(in.readPathMap());
+            in.readPathSet(s.toRemove);
+        } else {
+            PathTable paths = PathTable.of(gitletDir);
+            s.tracked = in.readPathIds(paths);
+            s.toAdd.putAll(in.readPathIds(paths));
+            in.readPathIdSet(s.toRemove, paths);
+        }
+        return s;
     }
 
     /**
@@ -49,32 +108,39 @@ public class Staging implements Serializable {
      * Attaches a file to the staging area and returns true if it changes.
      */
     public void add(File file) {
-        Blob blob = new Blob(file);
+        Blob blob = new Blob(file, gitletDir);
         String blobId = blob.getId();
         String filePath = file.getPath();
 
         toRemove.remove(filePath);
+        // Blob ids hash the path and contents, so equal ids mean an unchanged file.
         if (tracked.containsKey(filePath) && !toAdd.containsKey(filePath)) {
-            Blob trackedBlob = Blob.getBlob(tracked.get(filePath), Repository.GITLET_DIR);
-            assert trackedBlob != null;
-            if (blobId.equals(trackedBlob.getId())) {
+            if (blobId.equals(tracked.get(filePath))) {
                 this.save();
-                System.exit(0);
+                return;
             }
         }
         if (toAdd.containsKey(filePath)) {
-            Blob addedBlob = Blob.getBlob(toAdd.get(filePath), Repository.GITLET_DIR);
-            assert addedBlob != null;
-            if (blobId.equals(addedBlob.getId())) {
+            if (blobId.equals(toAdd.get(filePath))) {
                 toAdd.remove(filePath);
                 this.save();
-                System.exit(0);
+                return;
             }
         }
         toAdd.put(filePath, blobId);
         this.save();
     }
 
+    /**
+     * Stages the stored blob with the given id for addition without reading the
+     * working file. Used by merge for files outside the sparse-checkout patterns.
+     */
+    public void stage(String filePath, String blobId) {
+        toRemove.remove(filePath);
+        toAdd.put(filePath, blobId);
+        this.save();
+    }
+
     /**
      * Removes file from the staging area and returns true if it changes.
      */
@@ -97,15 +163,20 @@ public class Staging implements Serializable {
      */
     public Map<String, String> commit() {
         for (String filePath : toAdd.keySet()) {
-            Blob b = new Blob(Utils.getFile(filePath));
-            b.save(Repository.GITLET_DIR);
+            File file = new File(filePath);
+            // Blobs staged without a working file are already in the object store.
+            if (file.exists()) {
+                Blob b = new Blob(file, gitletDir);
+                b.save(gitletDir);
+            }
         }
         for (String filePath : toRemove) {
             tracked.remove(filePath);
         }
         tracked.putAll(toAdd);
         clear();
-        return tracked;
+        // Commits are cached, so the new commit gets its own copy of the map.
+        return new HashMap<>(tracked);
     }
 
     /**
@@ -126,7 +197,30 @@ public class Staging implements Serializable {
      * Saves the current staging object to the staging file.
      */
     public void save() {
-        Utils.writeObject(Repository.STAGING_FILE, this);
+        if (deferSaves) {
+            changed = true;
+            return;
+        }
+        Utils.writeContents(Utils.join(gitletDir, "staging"), (Object) encode(gitletDir));
+        changed = false;
+    }
+
+    /**
+     * Writes the staging area to the staging file if a save was deferred.
+     */
+    public void flush() {
+        if (changed) {
+            Utils.writeContents(Utils.join(gitletDir, "staging"), (Object) encode(gitletDir));
+            changed = false;
+        }
+    }
+
+    /**
+     * Sets whether saves are deferred until flush. Used by batch mode to write
+     * the staging area once instead of after every change.
+     */
+    public void setDeferSaves(boolean defer) {
+        deferSaves = defer;
     }
 
     public boolean isClear() {
@@ -138,7 +232,7 @@ public class Staging implements Serializable {
     }
 
     public void setTracked(Map<String, String> m) {
-        tracked = m;
+        tracked = new HashMap<>(m);
     }
 
     public Set<String> getToRemove() {
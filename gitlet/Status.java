@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state of a repository's branches, staging area and working directory,
+ * as reported by the status command. Files are listed by name. toString
+ * formats it the way the status command prints it.
+ *
+ * @author Jonathan Lu
+ */
+
+public final class Status {
+
+    private final List<String> branches = new ArrayList<>();
+    private String activeBranch;
+    private final List<String> staged = new ArrayList<>();
+    private final List<String> removed = new ArrayList<>();
+    // Kind of change, "deleted" or "modified", keyed by file name.
+    private final Map<String, String> modifications = new LinkedHashMap<>();
+    private final List<String> untracked = new ArrayList<>();
+
+    Status() {
+    }
+
+    /* BUILDING, USED BY REPOSITORY */
+
+    void addBranch(String name, boolean active) {
+        branches.add(name);
+        if (active) {
+            activeBranch = name;
+        }
+    }
+
+    void addStaged(String name) {
+        staged.add(name);
+    }
+
+    void addRemoved(String name) {
+        removed.add(name);
+    }
+
+    void addModification(String name, String change) {
+        modifications.put(name, change);
+    }
+
+    void addUntracked(String name) {
+        untracked.add(name);
+    }
+
+    /* GETTERS */
+
+    public List<String> getBranches() {
+        return Collections.unmodifiableList(branches);
+    }
+
+    public String getActiveBranch() {
+        return activeBranch;
+    }
+
+    public List<String> getStaged() {
+        return Collections.unmodifiableList(staged);
+    }
+
+    public List<String> getRemoved() {
+        return Collections.unmodifiableList(removed);
+    }
+
+    /**
+     * Returns the kind of each unstaged change, "deleted" or "modified", keyed
+     * by file name.
+     */
+    public Map<String, String> getModifications() {
+        return Collections.unmodifiableMap(modifications);
+    }
+
+    public List<String> getUntracked() {
+        return Collections.unmodifiableList(untracked);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder status = new StringBuilder();
+        status.append("=== Branches ===\n");
+        for (String branchName : branches) {
+            if (branchName.equals(activeBranch)) {
+                status.append("*");
+            }
+            status.append(branchName).append("\n");
+        }
+        status.append("\n=== Staged Files ===\n");
+        for (String name : staged) {
+            status.append(name).append("\n");
+        }
+        status.append("\n=== Removed Files ===\n");
+        for (String name : removed) {
+            status.append(name).append("\n");
+        }
+        status.append("\n=== Modifications Not Staged For Commit ===\n");
+        for (Map.Entry<String, String> entry : modifications.entrySet()) {
+            status.append(entry.getKey()).append(" (").append(entry.getValue()).append(")\n");
+        }
+        status.append("\n=== Untracked Files ===\n");
+        for (String name : untracked) {
+            status.append(name).append("\n");
+        }
+        return status.toString();
+    }
+}
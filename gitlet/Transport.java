@@ -0,0 +1,404 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * Talks to a gitlet server (see Server) about a remote whose location is a
+ * gitlet://host:port/path URL. Every exchange starts with the client sending
+ * PROTOCOL_MAGIC, a service name and the path of the repository, and the
+ * server advertising the repository's branches and their heads. The two sides
+ * then negotiate which commits and blobs the receiving side is missing, and the
+ * sending side streams exactly those as a Pack.
+ *
+ * During negotiation the sending side walks its history and asks, a batch of
+ * ids at a time, which objects the receiving side already has; the walk does
+ * not go past commits the receiver has, since it also has their ancestors.
+ * Every message is a count followed by that many items; a count of zero ends
+ * the negotiation.
+ *
+ * @author Jonathan Lu
+ */
+
+public class Transport implements Closeable {
+
+    // Sent first on every connection ("GLT1").
+    static final int PROTOCOL_MAGIC = 0x474C5431;
+    // Service for fetching from the server.
+    static final String UPLOAD_PACK = "upload-pack";
+    // Service for pushing to the server.
+    static final String RECEIVE_PACK = "receive-pack";
+    // Service for fetching blobs a partial repository is missing.
+    static final String UPLOAD_BLOBS = "upload-blobs";
+    // Port a server listens on when the URL or the serve command names none.
+    static final int DEFAULT_PORT = 9419;
+
+    // Most ids asked about in one negotiation message.
+    private static final int BATCH = 256;
+    // Most commits of a first-parent chain asked about ahead of the answers.
+    private static final int CHAIN = 64;
+
+    /**
+     * Answers, for each of a batch of object ids, whether the other side of
+     * the connection has that object.
+     */
+    interface Haves {
+        boolean[] have(List<String> ids) throws IOException;
+    }
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    // Heads of the remote repository's branches, keyed by branch name.
+    private final Map<String, String> refs = new TreeMap<>();
+
+    private Transport(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),
+                64 * 1024));
+    }
+
+    /**
+     * Returns true if the remote location is a gitlet server URL rather than a
+     * directory.
+     */
+    static boolean isUrl(String location) {
+        return location.startsWith("gitlet://");
+    }
+
+    /**
+     * Connects to the repository at url, requests the given service and reads
+     * the server's branch advertisement, for a transfer with repository
+     * gitletDir.
+     */
+    private static Transport open(String url, String service, File gitletDir) {
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException excp) {
+            throw error("Invalid remote URL: %s", url);
+        }
+        if (uri.getHost() == null || uri.getPath() == null) {
+            throw error("Invalid remote URL: %s", url);
+        }
+        int port = uri.getPort() == -1 ? DEFAULT_PORT : uri.getPort();
+        Transport t;
+        try {
+            t = new Transport(new Socket(uri.getHost(), port));
+        } catch (IOException excp) {
+            throw error("Could not connect to %s: %s", url, excp.getMessage());
+        }
+        try {
+            t.out.writeInt(PROTOCOL_MAGIC);
+            t.out.writeUTF(service);
+            t.out.writeUTF(uri.getPath());
+            t.out.flush();
+            if (!t.in.readBoolean()) {
+                String message = t.in.readUTF();
+                t.close();
+                exit(message);
+            }
+            int count = t.in.readInt();
+            for (int i = 0; i < count; i++) {
+                t.refs.put(t.in.readUTF(), t.in.readUTF());
+            }
+            for (Map.Entry<String, String> ref : t.refs.entrySet()) {
+                if (!Branch.isValidName(ref.getKey()) || !ObjectId.isId(ref.getValue())) {
+                    t.close();
+                    throw error("Received a malformed branch advertisement.");
+                }
+                if (ref.getValue().length() != HashAlgorithm.of(gitletDir).hexLength()) {
+                    t.close();
+                    HashAlgorithm.checkIdLength(gitletDir, ref.getValue().length());
+                }
+            }
+            return t;
+        } catch (IOException excp) {
+            t.close();
+            throw error("Lost connection to %s: %s", url, excp.getMessage());
+        }
+    }
+
+    /**
+     * Fetches branch branchName from the server at url into the local branch
+     * localBranchName, copying only the commits and blobs this repository lacks.
+     * If depth is positive, only the newest depth generations are copied, or,
+     * with deepen, depth more generations below the current shallow boundary.
+     * With blobless, only commits are copied, and blobs are fetched when needed.
+     * Every object written is recorded in journal, which is finished once the
+     * local branch has moved. The objects are written to repository gitletDir.
+     */
+    static void fetch(String url, String branchName, String localBranchName, int depth,
+            boolean deepen, boolean blobless, Journal journal, File gitletDir) {
+        try (Transport t = open(url, UPLOAD_PACK, gitletDir)) {
+            String want = t.refs.get(branchName);
+            if (want == null) {
+                exit("That remote does not have that branch.");
+            }
+            List<String> starts = deepen ? Shallow.deepenStarts(gitletDir) : List.of();
+            t.out.writeUTF(want);
+            t.out.writeInt(depth);
+            t.out.writeInt(starts.size());
+            for (String start : starts) {
+                t.out.writeUTF(start);
+            }
+            t.out.writeBoolean(blobless);
+            t.out.flush();
+            // Commits from the branch head, commits below the shallow boundary, then blobs.
+            answerHaves(t.in, t.out, gitletDir);
+            answerHaves(t.in, t.out, gitletDir);
+            answerHaves(t.in, t.out, gitletDir);
+            List<String> added = Pack.read(t.in, localBranchName, gitletDir, null, journal);
+            journal.checkpoint();
+            Shallow.update(added, gitletDir);
+            new Branch(localBranchName, want).save(gitletDir);
+            journal.finish();
+        } catch (IOException excp) {
+            throw error("Lost connection to %s: %s", url, excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the names of the branches of the repository at url, a remote of
+     * repository gitletDir.
+     */
+    static List<String> branchNames(String url, File gitletDir) {
+        try (Transport t = open(url, UPLOAD_PACK, gitletDir)) {
+            return new ArrayList<>(t.refs.keySet());
+        }
+    }
+
+    /**
+     * Fetches the given blobs from the server at url into repository gitletDir.
+     * Blobs the server does not have are left out.
+     */
+    static void fetchBlobs(String url, Collection<String> blobIds, File gitletDir) {
+        try (Transport t = open(url, UPLOAD_BLOBS, gitletDir)) {
+            t.out.writeInt(blobIds.size());
+            for (String id : blobIds) {
+                t.out.writeUTF(id);
+            }
+            t.out.flush();
+            Pack.read(t.in, null, gitletDir, null, null);
+        } catch (IOException excp) {
+            throw error("Lost connection to %s: %s", url, excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the ids of the commits to fetch into a repository: those reachable
+     * from want in repository gitletDir, or, if depth is positive, within depth
+     * generations of it; then, when starts are given to deepen a shallow
+     * repository, those within depth generations of the starts. The receiving
+     * repository's answers come from other.
+     */
+    static List<String> fetchCommits(String want, int depth, List<String> starts,
+            File gitletDir, Haves other) throws IOException {
+        Set<String> ids = new LinkedHashSet<>();
+        List<String> deepenFrom = new ArrayList<>();
+        for (String start : starts) {
+            if (objectFile(start, gitletDir) != null) {
+                deepenFrom.add(start);
+            }
+        }
+        List<String> fromHead = negotiateCommits(List.of(want), starts.isEmpty() ? depth : 0,
+                gitletDir, other);
+        // The deepened history is older, so it goes first.
+        ids.addAll(negotiateCommits(deepenFrom, depth, gitletDir, other));
+        ids.addAll(fromHead);
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Returns answers about the objects repository gitletDir has, for a
+     * negotiation that does not cross a connection.
+     */
+    static Haves localHaves(File gitletDir) {
+        return ids -> {
+            boolean[] has = new boolean[ids.size()];
+            for (int i = 0; i < has.length; i++) {
+                has[i] = objectFile(ids.get(i), gitletDir) != null;
+            }
+            return has;
+        };
+    }
+
+    /**
+     * Pushes the commit headId to branch branchName of the repository at url.
+     * The remote branch must not have moved past the local history; the server
+     * checks again before it moves the branch, so a concurrent push is not lost.
+     * Returns the number of commits pushed from repository gitletDir.
+     */
+    static int push(String url, String branchName, String headId, File gitletDir) {
+        try (Transport t = open(url, RECEIVE_PACK, gitletDir)) {
+            String oldId = t.refs.get(branchName);
+            if (oldId != null && !isAncestor(oldId, headId, gitletDir)) {
+                exit("Please pull down remote changes before pushing.");
+            }
+            t.out.writeUTF(branchName);
+            t.out.writeUTF(oldId == null ? "" : oldId);
+            t.out.writeUTF(headId);
+            Haves remote = t::askHaves;
+            List<String> missing = negotiateCommits(List.of(headId), 0, gitletDir, remote);
+            Shallow.checkComplete(missing, gitletDir);
+            Set<String> blobs = negotiateBlobs(missing, gitletDir, remote);
+            Pack.write(missing, blobs, gitletDir, t.out);
+            if (!t.in.readBoolean()) {
+                exit(t.in.readUTF());
+            }
+            return missing.size();
+        } catch (IOException excp) {
+            throw error("Lost connection to %s: %s", url, excp.getMessage());
+        }
+    }
+
+    /**
+     * Sends a batch of ids to the other side and reads back which of them it has.
+     */
+    boolean[] askHaves(List<String> ids) throws IOException {
+        return askHaves(in, out, ids);
+    }
+
+    static boolean[] askHaves(DataInputStream in, DataOutputStream out, List<String> ids)
+            throws IOException {
+        out.writeInt(ids.size());
+        for (String id : ids) {
+            out.writeUTF(id);
+        }
+        out.flush();
+        boolean[] has = new boolean[ids.size()];
+        for (int i = 0; i < has.length; i++) {
+            has[i] = in.readBoolean();
+        }
+        return has;
+    }
+
+    /**
+     * Answers the other side's batches of ids with whether repository gitletDir
+     * has each object, until it sends an empty batch.
+     */
+    static void answerHaves(DataInputStream in, DataOutputStream out, File gitletDir)
+            throws IOException {
+        int count;
+        while ((count = in.readInt()) > 0) {
+            for (int i = 0; i < count; i++) {
+                out.writeBoolean(objectFile(Pack.readId(in, gitletDir), gitletDir) != null);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Returns the ids of the commits reachable from the commits starts in
+     * repository gitletDir that the other side does not have, parents first,
+     * then ends the negotiation. If depth is positive, only commits within depth
+     * generations of a start (which is generation 1) are considered. Along with
+     * each commit whose answer is pending, up to CHAIN of its first-parent
+     * ancestors are asked about, so a long run of new commits takes few round
+     * trips.
+     */
+    static List<String> negotiateCommits(List<String> starts, int depth, File gitletDir,
+            Haves other) throws IOException {
+        // Commits asked about, mapped to 1 if the other side has them and 0 if not.
+        ObjectIdIntMap known = new ObjectIdIntMap();
+        ObjectIdIntMap generation = new ObjectIdIntMap();
+        Deque<String> frontier = new ArrayDeque<>();
+        for (String start : starts) {
+            if (generation.putIfAbsent(start, 1)) {
+                frontier.add(start);
+            }
+        }
+        while (!frontier.isEmpty()) {
+            List<String> batch = new ArrayList<>();
+            ObjectIdSet asked = new ObjectIdSet();
+            while (!frontier.isEmpty() && batch.size() < BATCH) {
+                String id = frontier.poll();
+                int gen = generation.get(id, 0);
+                for (int i = 0; i < CHAIN && id != null && !known.contains(id)
+                        && asked.add(id); i++) {
+                    batch.add(id);
+                    generation.putIfAbsent(id, gen + i);
+                    List<String> parents = Commit.getCommit(id, gitletDir).getParents();
+                    boolean deeper = depth <= 0 || gen + i < depth;
+                    id = parents.isEmpty() || !deeper ? null : parents.get(0);
+                }
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+            boolean[] has = other.have(batch);
+            for (int i = 0; i < has.length; i++) {
+                known.put(batch.get(i), has[i] ? 1 : 0);
+            }
+            for (int i = 0; i < has.length; i++) {
+                int gen = generation.get(batch.get(i), 0);
+                if (has[i] || (depth > 0 && gen >= depth)) {
+                    continue;
+                }
+                for (String parentId : Commit.getCommit(batch.get(i), gitletDir).getParents()) {
+                    if (!known.contains(parentId)) {
+                        generation.putIfAbsent(parentId, gen + 1);
+                        frontier.add(parentId);
+                    }
+                }
+            }
+        }
+        other.have(List.of());
+        // Commits never asked about are past the depth limit or below commits the other side has.
+        Set<String> missing = new LinkedHashSet<>();
+        for (String start : starts) {
+            missing.addAll(missingCommits(start, gitletDir, id -> known.get(id, 1) == 1));
+        }
+        return new ArrayList<>(missing);
+    }
+
+    /**
+     * Returns the ids of the blobs tracked by the given commits of repository
+     * gitletDir that the other side does not have, then ends the negotiation.
+     */
+    static Set<String> negotiateBlobs(List<String> commitIds, File gitletDir, Haves other)
+            throws IOException {
+        Set<String> blobIds = new LinkedHashSet<>();
+        for (String id : commitIds) {
+            blobIds.addAll(Commit.getCommit(id, gitletDir).getTracked().values());
+        }
+        Set<String> missing = new HashSet<>();
+        List<String> batch = new ArrayList<>();
+        Iterator<String> ids = blobIds.iterator();
+        while (ids.hasNext()) {
+            batch.add(ids.next());
+            if (batch.size() == BATCH * CHAIN || !ids.hasNext()) {
+                boolean[] has = other.have(batch);
+                for (int i = 0; i < has.length; i++) {
+                    if (!has[i]) {
+                        missing.add(batch.get(i));
+                    }
+                }
+                batch.clear();
+            }
+        }
+        other.have(List.of());
+        return missing;
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException excp) {
+            // Nothing left to do with a connection that fails to close.
+        }
+    }
+}
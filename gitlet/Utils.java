@@ -3,10 +3,13 @@ package gitlet;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Assorted utilities here.
@@ -15,36 +18,20 @@ import java.util.*;
 
 public class Utils {
 
-    // The length of a complete SHA-1 UID as a hexadecimal numeral.
-    static final int UID_LENGTH = 40;
+    // Locks held while writing objects, shared by object ids with the same hash.
+    private static final Object[] OBJECT_LOCKS = new Object[64];
 
-    /* SHA-1 HASH VALUES */
+    static {
+        Arrays.setAll(OBJECT_LOCKS, i -> new Object());
+    }
+
+    /* HASH VALUES */
 
     /**
-     * Returns the SHA-1 hash of the concatenation of VALS, which may
-     * be any mixture of byte arrays and Strings.
+     * Returns the lowercase hexadecimal representation of DIGEST.
      */
-
-    static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
-        }
+    static String toHex(byte[] digest) {
+        return ObjectId.toHex(digest);
     }
 
     /* READING AND WRITING FILE CONTENTS */
@@ -96,6 +83,27 @@ public class Utils {
         }
     }
 
+    /**
+     * Writes the result of concatenating the bytes in CONTENTS to FILE, as
+     * writeContents does, but to a temporary file in the same directory that
+     * is then renamed over FILE, so no reader or later process ever sees FILE
+     * partly written.
+     */
+    static void writeContentsAtomically(File file, Object... contents) {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(file.getParentFile().toPath(), ".write", ".tmp");
+            writeContents(temp.toFile(), contents);
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | IllegalArgumentException excp) {
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /**
      * Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      * Returns null in case of problems.
@@ -169,6 +177,43 @@ public class Utils {
         return Paths.get(first.getPath(), others).toFile();
     }
 
+    /**
+     * Returns the lock to hold while checking for and writing the object with
+     * the given id, so transfers running at once store each object only once.
+     */
+    static Object objectLock(String id) {
+        return OBJECT_LOCKS[Math.floorMod(id.hashCode(), OBJECT_LOCKS.length)];
+    }
+
+    /**
+     * Returns the file storing the object with the given id (or unique id
+     * prefix) in repository gitletDir, or null if no such object exists.
+     */
+    static File objectFile(String id, File gitletDir) {
+        String folderName = id.substring(0, 2);
+        String fileName = id.substring(2);
+        File objects = join(gitletDir, "objects");
+        File folder = join(objects, folderName);
+        if (!folder.exists()) {
+            return null;
+        }
+        File objectFile = join(folder, fileName);
+        if (fileName.length() < HashAlgorithm.of(gitletDir).hexLength() - 2) {
+            List<String> containedObjects = plainFilenamesIn(folder);
+            assert containedObjects != null;
+            for (String objectId : containedObjects) {
+                if (objectId.startsWith(fileName)) {
+                    objectFile = join(folder, objectId);
+                    break;
+                }
+            }
+        }
+        if (!objectFile.exists()) {
+            return null;
+        }
+        return objectFile;
+    }
+
     /* SERIALIZATION UTILITIES */
 
     /**
@@ -197,24 +242,25 @@ public class Utils {
     }
 
     /**
-     * Used for error handling. Prints the given message, then exits the program.
+     * Used for error handling. Ends the current command with the given message,
+     * which Main prints. Throwing instead of exiting lets a long-running process
+     * carry on with its next command.
      */
     static void exit(String message) {
-        System.out.println(message);
-        System.exit(0);
+        throw new GitletException(message);
     }
 
     /* GITLET COMMAND UTILS */
 
     /**
-     * Returns an instance of the filename or an instance of join(CWD, file)
+     * Returns an instance of the filename or an instance of join(workTree, file)
      * In gitlet, used to reference the contents of a file.
      */
-    static File getFile(String file) {
+    static File getFile(String file, File workTree) {
         if (Paths.get(file).isAbsolute()) {
             return new File(file);
         } else {
-            return join(Repository.CWD, file);
+            return join(workTree, file);
         }
     }
 
@@ -224,8 +270,8 @@ public class Utils {
      * adds builds the log of that object, then points to it's parent Commit.
      * Repeats until the parents list is empty, then saves the LOG file.
      */
-    static void buildLog() {
-        Commit currentHead = getHeadCommit(Repository.GITLET_DIR);
+    static void buildLog(File gitletDir) {
+        Commit currentHead = getHeadCommit(gitletDir);
         StringBuilder log = new StringBuilder();
 
         while (true) {
@@ -235,23 +281,41 @@ public class Utils {
                 break;
             }
             String newHeadId = currentHead.getParents().get(0);
-            currentHead = Commit.getCommit(newHeadId, Repository.GITLET_DIR);
+            currentHead = Commit.getCommit(newHeadId, gitletDir);
         }
         log.delete(0, 1);
-        writeContents(Repository.LOG, log.toString());
+        writeContents(join(gitletDir, "log"), log.toString());
     }
 
     /**
      * Builds the global log of all commits in chronological order.
      */
     static void buildGlobalLog(Commit c, File gitletDir) {
+        appendGlobalLog(globalLogEntry(c), gitletDir);
+    }
+
+    /**
+     * Returns the entry of commit c in the global log.
+     */
+    static String globalLogEntry(Commit c) {
+        return c.getLog().substring(1) + "\n";
+    }
+
+    /**
+     * Appends the given global log entries to the global log of repository
+     * gitletDir, so the cost does not grow with the log.
+     */
+    static void appendGlobalLog(CharSequence entries, File gitletDir) {
+        if (entries.length() == 0) {
+            return;
+        }
         File globalLog = join(gitletDir, "global log");
-        if (!globalLog.exists()) {
-            writeContents(globalLog, "");
+        try {
+            Files.write(globalLog.toPath(), entries.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        String log = readContentsAsString(globalLog)
-                + c.getLog().substring(1) + "\n";
-        writeContents(globalLog, log);
     }
 
     /**
@@ -274,8 +338,8 @@ public class Utils {
         return Commit.getCommit(getHeadId(gitletDir), gitletDir);
     }
 
-    static void setActiveBranchName(String name) {
-        Utils.writeContents(Repository.ACTIVE_BRANCH, name);
+    static void setActiveBranchName(String name, File gitletDir) {
+        Utils.writeContents(join(gitletDir, "branches", "active branch"), name);
     }
 
     static String getActiveBranchName(File gitletDir) {
@@ -284,43 +348,38 @@ public class Utils {
     }
 
     static void updateActiveBranchHead(Commit c, File gitletDir) {
-        Branch b = new Branch(getActiveBranchName(gitletDir), c);
-        b.save(Repository.GITLET_DIR);
+        Branch b = new Branch(getActiveBranchName(gitletDir), c.getId());
+        b.save(gitletDir);
     }
 
     /**
-     * Error handling for when a commit is being checked out. If an untracked file
-     * will be modified or removed by the checkout, displays an error message.
+     * Returns a map where the keys are all ancestor commits of the given commit,
+     * and their values are the depth from the initial commit. The depth will be
+     * used to find the latest common ancestor (ancestor with greatest depth) of two
+     * commits.
      */
-    static void checkForUntracked(Commit c) {
-        for (String filePath : c.getTracked().keySet()) {
-            if (!getHeadCommit(Repository.GITLET_DIR).getTracked().containsKey(filePath)) {
-                if (new File(filePath).exists()) {
-                    exit("There is an untracked file in the way; delete it, "
-                            + "or add and commit it first.");
-                }
-            }
-        }
+    static ObjectIdIntMap getAncestorsDepths(Commit c, File gitletDir) {
+        ObjectIdIntMap m = new ObjectIdIntMap();
+        addAncestorsDepths(c, m, gitletDir);
+        return m;
     }
 
     /**
-     * Returns a Map where the keys are all ancestor commits of the given commit,
-     * and their values are the depth from the initial commit. The depth will be
-     * used to find the latest common ancestor (ancestor with greatest depth) of two
-     * commits.
+     * Adds the given commit and its ancestors that are not in m yet to m, with
+     * their depths.
      */
-    static Map<String, Integer> getAncestorsDepths(Commit c) {
-        Map<String, Integer> m = new HashMap<>();
+    private static void addAncestorsDepths(Commit c, ObjectIdIntMap m, File gitletDir) {
         Commit currentCommit = c;
 
         while (true) {
             // if a Commit node was visited, no need to iterate through its ancestors.
             assert currentCommit != null;
-            if (m.containsKey(currentCommit.getId())) {
+            ObjectId id = ObjectId.fromHex(currentCommit.getId());
+            if (m.contains(id)) {
                 break;
             }
             // Add the current node and its depth.
-            m.put(currentCommit.getId(), currentCommit.getDepth());
+            m.put(id, currentCommit.getDepth());
 
             // If the initial commit is visited, the iteration is finished.
             List<String> commitParents = currentCommit.getParents();
@@ -330,28 +389,28 @@ public class Utils {
             // if the Commit node has 2 parents, add the ancestors of its second parent.
             if (commitParents.size() > 1) {
                 String secondParentId = commitParents.get(1);
-                Commit secondParent = Commit.getCommit(secondParentId, Repository.GITLET_DIR);
-                m.putAll(getAncestorsDepths(secondParent));
+                Commit secondParent = Commit.getCommit(secondParentId, gitletDir);
+                addAncestorsDepths(secondParent, m, gitletDir);
             }
             // Change the current node to its first parent.
             String firstParentId = commitParents.get(0);
-            currentCommit = Commit.getCommit(firstParentId, Repository.GITLET_DIR);
+            currentCommit = Commit.getCommit(firstParentId, gitletDir);
         }
-        return m;
     }
 
     /**
      * Returns a map of all common ancestors, which are ancestor commits shared
      * by both the given commit and the Map iterated.
      */
-    static Map<String, Integer> getCommonAncestorsDepths(Commit c, Map<String, Integer> iterated) {
+    static Map<String, Integer> getCommonAncestorsDepths(Commit c, ObjectIdSet iterated,
+            File gitletDir) {
         Map<String, Integer> commonAncestors = new HashMap<>();
         Commit currentCommit = c;
         while (true) {
             // If a shared Commit node is visited, put it in the returned map.
             // No need to iterate through its ancestors.
             assert currentCommit != null;
-            if (iterated.containsKey(currentCommit.getId())) {
+            if (iterated.contains(currentCommit.getId())) {
                 commonAncestors.put(currentCommit.getId(), currentCommit.getDepth());
                 break;
             }
@@ -363,12 +422,13 @@ public class Utils {
             // if the Commit node has 2 parents, add the ancestors of its second parent.
             if (commitParents.size() > 1) {
                 String secondParentId = commitParents.get(1);
-                Commit secondParent = Commit.getCommit(secondParentId, Repository.GITLET_DIR);
-                commonAncestors.putAll(getCommonAncestorsDepths(secondParent, iterated));
+                Commit secondParent = Commit.getCommit(secondParentId, gitletDir);
+                commonAncestors.putAll(getCommonAncestorsDepths(secondParent, iterated,
+                        gitletDir));
             }
             // Change the current node to its first parent.
             String firstParentId = commitParents.get(0);
-            currentCommit = Commit.getCommit(firstParentId, Repository.GITLET_DIR);
+            currentCommit = Commit.getCommit(firstParentId, gitletDir);
         }
         return commonAncestors;
     }
@@ -425,83 +485,122 @@ public class Utils {
     }
 
     /**
-     * Handler for checkout: restores tracked files, deletes untracked files, clears
-     * the staging area, and points the tracked map to tracked files in the given
-     * commit. Saves the staging area and sets the branch head to the given commit.
+     * Returns the ids of the commits reachable from the commit headId in
+     * repository fromDir that repository toDir does not have, with parents
+     * before children. The walk stops at commits toDir already has: objects are
+     * always copied parents first, so toDir also has all of their ancestors.
      */
-    static void checkoutProcesses(Commit c, Staging s) {
-        c.restoreTrackedFiles();
-        c.deleteUntrackedFiles();
-        s.clear();
-        s.setTracked(c.getTracked());
-        s.save();
-        setHead(c.getId(), Repository.GITLET_DIR);
+    static List<String> missingCommits(String headId, File fromDir, File toDir) {
+        return missingCommits(headId, fromDir, id -> objectFile(id, toDir) != null);
     }
 
     /**
-     * Returns a set of all parent commits starting from the commit c.
-     * Used for copying over commits in a remote repository, where Commit c
-     * is the head commit of a given branch.
+     * Returns the ids of the commits reachable from the commit headId in
+     * repository gitletDir for which has is false, with parents before children.
+     * The walk does not go past commits for which has is true.
      */
-    static Set<Commit> getAllCommits(Commit c, File gitletDir) {
-        Set<Commit> s = new HashSet<>();
-        Commit currentCommit = c;
+    static List<String> missingCommits(String headId, File gitletDir, Predicate<String> has) {
+        return missingCommits(headId, id -> {
+            Commit c = Commit.getCommit(id, gitletDir);
+            assert c != null;
+            return c.getParents();
+        }, has);
+    }
 
-        while (true) {
-            // If a Commit node was visited, no need to iterate through its ancestors.
-            assert currentCommit != null;
-            if (s.contains(currentCommit)) {
-                break;
+    /**
+     * Returns the ids of the commits reachable from the commit headId for which
+     * has is false, with parents before children, given the parents of each
+     * commit. The walk does not go past commits for which has is true.
+     */
+    static List<String> missingCommits(String headId, Function<String, List<String>> parents,
+            Predicate<String> has) {
+        List<String> missing = new ArrayList<>();
+        ObjectIdSet entered = new ObjectIdSet();
+        ObjectIdSet done = new ObjectIdSet();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(headId);
+
+        while (!pending.isEmpty()) {
+            String id = pending.peek();
+            if (done.contains(id) || has.test(id)) {
+                pending.pop();
+                continue;
             }
-            // Add the current node and its depth.
-            s.add(currentCommit);
+            // On the first visit, walk the parents; on the second, they are done.
+            if (entered.add(id)) {
+                for (String parentId : parents.apply(id)) {
+                    if (!done.contains(parentId)) {
+                        pending.push(parentId);
+                    }
+                }
+            } else {
+                pending.pop();
+                done.add(id);
+                missing.add(id);
+            }
+        }
+        return missing;
+    }
 
-            // If the initial commit is visited, the iteration is finished.
-            List<String> commitParents = currentCommit.getParents();
-            if (commitParents.isEmpty()) {
-                break;
+    /**
+     * Returns true if the commit ancestorId is the commit id or one of its
+     * ancestors in repository gitletDir.
+     */
+    static boolean isAncestor(String ancestorId, String id, File gitletDir) {
+        Reachability index = Reachability.read(gitletDir);
+        if (index != null) {
+            return index.isAncestor(ancestorId, id, gitletDir);
+        }
+        ObjectIdSet visited = new ObjectIdSet();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(id);
+        while (!pending.isEmpty()) {
+            String currentId = pending.pop();
+            if (currentId.equals(ancestorId)) {
+                return true;
             }
-            // If the Commit node has 2 parents, add the ancestors of its second parent.
-            if (commitParents.size() > 1) {
-                String secondParentId = commitParents.get(1);
-                Commit secondParent = Commit.getCommit(secondParentId, gitletDir);
-                s.addAll(getAllCommits(secondParent, gitletDir));
+            if (visited.add(currentId)) {
+                Commit c = Commit.getCommit(currentId, gitletDir);
+                assert c != null;
+                c.getParents().forEach(pending::push);
             }
-            // Change the current node to its first parent.
-            String firstParentId = commitParents.get(0);
-            currentCommit = Commit.getCommit(firstParentId, gitletDir);
         }
-        return s;
+        return false;
     }
 
     /**
-     * Returns a set of all blobs tracked by a set of commits.
-     * Used for copying over blobs from a remote repository, where the commits
-     * are obtained by calling getAllCommits on the head of a given branch.
+     * Returns filePath, a file in the working directory fromWorkTree, as the
+     * path of the same file in the working directory toWorkTree.
      */
-    static Set<Blob> getAllBlobs(Set<Commit> commits, File remoteDir) {
-        Set<Blob> blobSet = new HashSet<>();
-        for (Commit c : commits) {
-            for (String blobId : c.getTracked().values()) {
-                Blob b = Blob.getBlob(blobId, remoteDir);
-                blobSet.add(b);
-            }
+    static String rebasePath(String filePath, File fromWorkTree, File toWorkTree) {
+        String prefix = fromWorkTree.getPath() + File.separator;
+        if (filePath.startsWith(prefix)) {
+            return join(toWorkTree, filePath.substring(prefix.length())).getPath();
         }
-        return blobSet;
+        return join(toWorkTree, new File(filePath).getName()).getPath();
+    }
+
+    /**
+     * Returns true if filePath names a file inside the working directory
+     * workTree and outside its .gitlet directory.
+     */
+    static boolean inWorkTree(String filePath, File workTree) {
+        Path root = workTree.toPath().toAbsolutePath().normalize();
+        Path path = Paths.get(filePath).toAbsolutePath().normalize();
+        return path.startsWith(root) && !path.equals(root)
+                && !path.startsWith(root.resolve(".gitlet"));
     }
 
     /**
-     * Returns the Branch object stored in the file id and repository gitletDir.
+     * Returns the Branch object with the given name in repository gitletDir.
      */
     static Branch getBranch(String name, File gitletDir) {
-        File branchDir = join(gitletDir, "branches");
-        File file = Utils.join(branchDir, name);
-        return Utils.readObject(file, Branch.class);
+        return Branch.readBranch(name, gitletDir);
     }
 
     static Commit getInitialCommit(File gitletDir) {
         File staging = join(gitletDir, "staging");
-        Staging s = readObject(staging, Staging.class);
+        Staging s = staging.isFile() ? Staging.decode(readContents(staging), gitletDir) : null;
         return Commit.getCommit(Objects.requireNonNull(s, "The repository"
                 + "has not yet been initialized.").getInitialId(), gitletDir);
     }
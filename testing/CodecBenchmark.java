@@ -0,0 +1,174 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Benchmark of the binary metadata codec against Java serialization.
+ *
+ * Usage (from the directory holding the compiled gitlet package):
+ *   javac -d . ../testing/CodecBenchmark.java
+ *   java gitlet.CodecBenchmark [commits] [files per commit]
+ *
+ * Builds commits tracking the given number of files under a deep absolute
+ * path, then reports for each format the encoded size per commit and the
+ * encode and decode throughput in commits per second. A staging area holding
+ * the same files is measured the same way. Last, it reports the heap held by
+ * the decoded commits, whose paths the path table format shares.
+ *
+ * @author Jonathan Lu
+ */
+public class CodecBenchmark {
+
+    // Passes over the commits made before timing, so the JIT has compiled both paths.
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int TIMED_ROUNDS = 5;
+
+    // Working directory of the repository whose path table the benchmark uses.
+    private static File workTree;
+
+    public static void main(String[] args) throws IOException {
+        workTree = Files.createTempDirectory("codec-benchmark").toFile();
+        File gitletDir = Utils.join(workTree, ".gitlet");
+        gitletDir.mkdir();
+        // Keeps the path table in memory, as it is for an open repository.
+        RepositoryCache cache = RepositoryCache.open(gitletDir);
+        PathTable table = PathTable.of(gitletDir);
+        int commitCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int fileCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        List<Commit> commits = new ArrayList<>();
+        Map<String, String> tracked = new HashMap<>();
+        String parent = null;
+        for (int i = 0; i < commitCount; i++) {
+            // The first commit adds every file; each later one changes one file.
+            if (i == 0) {
+                for (int f = 0; f < fileCount; f++) {
+                    tracked.put(path(f), HashAlgorithm.SHA1.hash("file " + f + " at " + i));
+                }
+            } else {
+                tracked.put(path(i % fileCount), HashAlgorithm.SHA1.hash("file at " + i));
+            }
+            Commit c = new Commit("commit " + i, parent == null ? null : List.of(parent),
+                    new HashMap<>(tracked), "Mon Oct 19 12:00:00 2026 +0000", i, "master",
+                    gitletDir);
+            commits.add(c);
+            parent = c.getId();
+        }
+        Staging staging = new Staging(gitletDir);
+        staging.setTracked(tracked);
+        staging.setInitialId(commits.get(0).getId());
+
+        System.out.printf("%d commits tracking %d files%n%n", commitCount, fileCount);
+        System.out.printf("%-22s %12s %14s %14s%n", "format", "bytes/commit", "encode/s",
+                "decode/s");
+        measure("java serialization", commits, Utils::serialize,
+                data -> Codec.readLegacy(data, Commit.class));
+        measure("binary, full paths", commits, Commit::encode, Commit::decode);
+        measure("binary, path table", commits, c -> c.encode(table),
+                data -> Commit.decode(data, gitletDir));
+
+        List<Staging> stagings = Collections.nCopies(50, staging);
+        System.out.printf("%n%-22s %12s %14s %14s%n", "format", "bytes/staging", "encode/s",
+                "decode/s");
+        measure("java serialization", stagings, Utils::serialize,
+                data -> Codec.readLegacy(data, Staging.class));
+        measure("binary, path table", stagings, s -> s.encode(gitletDir),
+                data -> Staging.decode(data, gitletDir));
+
+        System.out.printf("%n%-22s %12s%n", "format", "retained MB");
+        retained("java serialization", commits, Utils::serialize,
+                data -> Codec.readLegacy(data, Commit.class));
+        retained("binary, full paths", commits, Commit::encode, Commit::decode);
+        retained("binary, path table", commits, c -> c.encode(table),
+                data -> Commit.decode(data, gitletDir));
+
+        cache.close();
+        for (File file : Objects.requireNonNull(gitletDir.listFiles())) {
+            file.delete();
+        }
+        gitletDir.delete();
+        workTree.delete();
+    }
+
+    private static String path(int file) {
+        return workTree.getPath() + "/src/main/java/org/example/project/dir" + file % 50
+                + "/File" + file + ".java";
+    }
+
+    private static <T> void measure(String name, List<T> records, Function<T, byte[]> encoder,
+            Function<byte[], T> decoder) {
+        List<byte[]> encoded = new ArrayList<>();
+        long bytes = 0;
+        for (T record : records) {
+            byte[] data = encoder.apply(record);
+            encoded.add(data);
+            bytes += data.length;
+        }
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            encodeAll(records, encoder);
+            decodeAll(encoded, decoder);
+        }
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        for (int round = 0; round < TIMED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            encodeAll(records, encoder);
+            encodeNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            decodeAll(encoded, decoder);
+            decodeNanos += System.nanoTime() - start;
+        }
+        double operations = (double) records.size() * TIMED_ROUNDS;
+        System.out.printf("%-22s %12d %14.0f %14.0f%n", name, bytes / records.size(),
+                operations / (encodeNanos / 1e9), operations / (decodeNanos / 1e9));
+    }
+
+    /**
+     * Prints the heap held by the decoded forms of records.
+     */
+    private static <T> void retained(String name, List<T> records,
+            Function<T, byte[]> encoder, Function<byte[], T> decoder) {
+        List<byte[]> encoded = new ArrayList<>();
+        for (T record : records) {
+            encoded.add(encoder.apply(record));
+        }
+        long before = usedHeap();
+        List<T> decoded = new ArrayList<>();
+        for (byte[] data : encoded) {
+            decoded.add(decoder.apply(data));
+        }
+        long after = usedHeap();
+        System.out.printf("%-22s %12.1f%n", name, (after - before) / 1e6);
+        if (decoded.size() != records.size()) {
+            throw new AssertionError("could not decode");
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static <T> void encodeAll(List<T> records, Function<T, byte[]> encoder) {
+        for (T record : records) {
+            if (encoder.apply(record).length == 0) {
+                throw new AssertionError("empty encoding");
+            }
+        }
+    }
+
+    private static <T> void decodeAll(List<byte[]> encoded, Function<byte[], T> decoder) {
+        for (byte[] data : encoded) {
+            if (decoder.apply(data) == null) {
+                throw new AssertionError("could not decode");
+            }
+        }
+    }
+}
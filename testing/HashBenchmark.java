@@ -0,0 +1,97 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Formatter;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Benchmark of object hashing: SHA-1 against SHA-256, and the thread-local
+ * digests and table hex of HashAlgorithm against a MessageDigest looked up
+ * for every hash and formatted with a Formatter, as Utils.sha1 did before.
+ *
+ * Usage (from the directory holding the compiled gitlet package):
+ *   javac -d . ../testing/HashBenchmark.java
+ *   java gitlet.HashBenchmark [seconds per case]
+ *
+ * Hashes a path and contents, as a blob id is made, for small contents the
+ * size of a commit's hashed fields and for large ones the size of a big file,
+ * and reports hashes per second and MB hashed per second for each case.
+ *
+ * @author Jonathan Lu
+ */
+public class HashBenchmark {
+
+    private static final String PATH = "/home/user/project/src/main/java/Example.java";
+    private static final int[] SIZES = {64, 1 << 20};
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        Random random = new Random(42);
+
+        System.out.printf("%-10s %10s %-24s %14s %10s%n", "algorithm", "bytes", "method",
+                "hashes/s", "MB/s");
+        for (int size : SIZES) {
+            byte[] content = new byte[size];
+            random.nextBytes(content);
+            for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+                String digestName = algorithm == HashAlgorithm.SHA1 ? "SHA-1" : "SHA-256";
+                measure(algorithm, size, "getInstance + Formatter", seconds,
+                        () -> oldHash(digestName, PATH, content));
+                measure(algorithm, size, "thread-local + table", seconds,
+                        () -> algorithm.hash(PATH, content));
+            }
+        }
+    }
+
+    /**
+     * Hashes the way Utils.sha1 did before HashAlgorithm.
+     */
+    private static String oldHash(String digestName, String path, byte[] content) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(digestName);
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support " + digestName);
+        }
+        md.update(path.getBytes(StandardCharsets.UTF_8));
+        md.update(content);
+        Formatter result = new Formatter();
+        for (byte b : md.digest()) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Warms hash up, then runs it for the given number of seconds and prints
+     * its throughput.
+     */
+    private static void measure(HashAlgorithm algorithm, int size, String method,
+            double seconds, Supplier<String> hash) {
+        long deadline = System.nanoTime() + (long) (seconds * 0.5e9);
+        int check = 0;
+        while (System.nanoTime() < deadline) {
+            check += hash.get().length();
+        }
+        long hashes = 0;
+        long start = System.nanoTime();
+        deadline = start + (long) (seconds * 1e9);
+        long now;
+        do {
+            for (int i = 0; i < 16; i++) {
+                check += hash.get().length();
+            }
+            hashes += 16;
+            now = System.nanoTime();
+        } while (now < deadline);
+        double elapsed = (now - start) / 1e9;
+        System.out.printf("%-10s %10d %-24s %14.0f %10.1f%n", algorithm.formatName(), size,
+                method, hashes / elapsed, hashes * (double) size / elapsed / 1e6);
+        if (check == 42) {
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package gitlet;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Benchmark of ObjectId and its open-addressing set and map against the hex
+ * Strings, HashSet and HashMap used before.
+ *
+ * Usage (from the directory holding the compiled gitlet package):
+ *   javac -d . ../testing/ObjectIdBenchmark.java
+ *   java gitlet.ObjectIdBenchmark [ids]
+ *
+ * Reports the time to format a SHA-1 digest as hex, then, for a history walk
+ * over the given number of commit ids, the heap retained by the visited set
+ * and by an id-to-position map, the time to build them, and the collections
+ * and collection time the garbage collector spent while building them. Ids
+ * arrive as hex Strings, as they do from commits, and the String structures
+ * keep them while the ObjectId ones drop them.
+ *
+ * @author Jonathan Lu
+ */
+public class ObjectIdBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        byte[][] digests = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            digests[i] = HashAlgorithm.SHA1.newDigest().digest(("commit " + i).getBytes());
+        }
+
+        System.out.printf("hex formatting of %d digests (ns per id)%n", count);
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (byte[] digest : digests) {
+                formatterHex(digest);
+            }
+            long formatter = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (byte[] digest : digests) {
+                ObjectId.toHex(digest);
+            }
+            long table = System.nanoTime() - start;
+            System.out.printf("  round %d: Formatter %.0f, table %.0f%n", round + 1,
+                    (double) formatter / count, (double) table / count);
+        }
+
+        System.out.printf("%n%-24s %14s %12s %10s %10s%n", "structure (" + count + " ids)",
+                "retained MB", "build ms", "GCs", "GC ms");
+        measure("HashSet<String>", () -> {
+            Set<String> set = new HashSet<>();
+            for (byte[] digest : digests) {
+                set.add(Utils.toHex(digest));
+            }
+            return set;
+        });
+        measure("ObjectIdSet", () -> {
+            ObjectIdSet set = new ObjectIdSet();
+            for (byte[] digest : digests) {
+                set.add(Utils.toHex(digest));
+            }
+            return set;
+        });
+        measure("HashMap<String,Integer>", () -> {
+            Map<String, Integer> map = new HashMap<>();
+            int position = 0;
+            for (byte[] digest : digests) {
+                map.put(Utils.toHex(digest), position++);
+            }
+            return map;
+        });
+        measure("ObjectIdIntMap", () -> {
+            ObjectIdIntMap map = new ObjectIdIntMap();
+            int position = 0;
+            for (byte[] digest : digests) {
+                map.put(Utils.toHex(digest), position++);
+            }
+            return map;
+        });
+    }
+
+    private static String formatterHex(byte[] digest) {
+        Formatter result = new Formatter();
+        for (byte b : digest) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Builds the structure ROUNDS times, and prints the heap the last one
+     * retains and the average build time and garbage collection per build.
+     */
+    private static void measure(String name, Supplier<Object> build) {
+        Object kept = null;
+        long nanos = 0;
+        long collections = 0;
+        long collectionMillis = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            kept = null;
+            long before = usedHeap();
+            long[] gcBefore = gcTotals();
+            long start = System.nanoTime();
+            kept = build.get();
+            nanos += System.nanoTime() - start;
+            long[] gcAfter = gcTotals();
+            collections += gcAfter[0] - gcBefore[0];
+            collectionMillis += gcAfter[1] - gcBefore[1];
+            if (round == ROUNDS - 1) {
+                long retained = usedHeap() - before;
+                System.out.printf("%-24s %14.1f %12.0f %10.1f %10.1f%n", name,
+                        retained / 1e6, nanos / 1e6 / ROUNDS, (double) collections / ROUNDS,
+                        (double) collectionMillis / ROUNDS);
+            }
+        }
+        if (kept.hashCode() == 42) {
+            System.out.println();
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+            millis += Math.max(0, bean.getCollectionTime());
+        }
+        return new long[] {count, millis};
+    }
+}
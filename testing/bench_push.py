@@ -0,0 +1,79 @@
+"""Push benchmark for gitlet.
+
+Usage: python3 bench_push.py [--commits N] [--files N] [--changes N]
+
+Imports a history of --commits commits over a tree of --files files (each
+commit after the first changes --changes files) into a scratch repository
+with fast-import, then times pushing it to an empty remote, and times a
+second push of one more commit.
+"""
+
+import argparse
+import os
+import shutil
+import subprocess
+import tempfile
+import time
+
+
+def gitlet(repo, *args, stdin=None):
+    """Runs gitlet in REPO with ARGS and returns elapsed seconds."""
+    start = time.perf_counter()
+    subprocess.run(["java", "gitlet.Main", *args], cwd=repo, check=True,
+                   stdin=stdin, stdout=subprocess.DEVNULL)
+    return time.perf_counter() - start
+
+
+def write_history(path, commits, files, changes):
+    """Writes a fast-import stream of the requested shape to PATH."""
+    with open(path, "w") as out:
+        for i in range(commits):
+            message = "commit %d" % i
+            out.write("commit master\ndata %d\n%s\n" % (len(message), message))
+            changed = range(files) if i == 0 else \
+                [(i * changes + j) % files for j in range(changes)]
+            for f in changed:
+                content = "file %d at commit %d\n" % (f, i)
+                out.write("M dir%d/file%d.txt\ndata %d\n%s"
+                          % (f % 100, f, len(content), content))
+        out.write("done\n")
+
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__.splitlines()[0])
+    parser.add_argument("--commits", type=int, default=1000)
+    parser.add_argument("--files", type=int, default=10000)
+    parser.add_argument("--changes", type=int, default=10)
+    opts = parser.parse_args()
+
+    scratch = tempfile.mkdtemp(prefix="gitlet-push-")
+    try:
+        local = os.path.join(scratch, "local")
+        remote = os.path.join(scratch, "remote")
+        os.mkdir(local)
+        os.mkdir(remote)
+        gitlet(local, "init")
+        gitlet(remote, "init")
+        gitlet(local, "add-remote", "origin", os.path.join(remote, ".gitlet"))
+
+        stream = os.path.join(scratch, "history")
+        write_history(stream, opts.commits, opts.files, opts.changes)
+        with open(stream) as history:
+            seconds = gitlet(local, "fast-import", stdin=history)
+        print("import %d commits x %d files: %.1f s" % (opts.commits, opts.files, seconds))
+
+        seconds = gitlet(local, "push", "origin", "master")
+        print("push to empty remote:        %.1f s" % seconds)
+
+        with open(stream, "w") as out:
+            out.write("commit master\ndata 4\nnext\nM extra.txt\ndata 6\nextra\n")
+        with open(stream) as history:
+            gitlet(local, "fast-import", stdin=history)
+        seconds = gitlet(local, "push", "origin", "master")
+        print("push of one new commit:      %.1f s" % seconds)
+    finally:
+        shutil.rmtree(scratch)
+
+
+if __name__ == "__main__":
+    main()
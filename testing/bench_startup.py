@@ -0,0 +1,87 @@
+"""Startup-latency benchmark for gitlet commands.
+
+Usage: python3 bench_startup.py [--runs N] [--files N] [--save FILE] [--check FILE]
+
+Builds a scratch repository with --files tracked files, then times each
+command --runs times as a fresh `java gitlet.Main` process and reports the
+median wall-clock time in milliseconds. --save writes the medians as JSON;
+--check compares against a saved run and exits non-zero if any command is
+more than --tolerance (default 20%) slower.
+"""
+
+import argparse
+import json
+import os
+import shutil
+import statistics
+import subprocess
+import sys
+import tempfile
+import time
+
+# Commands timed against the scratch repository, keyed by report name.
+COMMANDS = {
+    "log": ["log"],
+    "global-log": ["global-log"],
+    "find": ["find", "commit 1"],
+    "status": ["status"],
+    "branch": ["branch", "bench"],
+    "rm-branch": ["rm-branch", "bench"],
+    "add": ["add", "file0.txt"],
+    "checkout-file": ["checkout", "--", "file0.txt"],
+}
+
+
+def gitlet(repo, *args):
+    """Runs gitlet in REPO with ARGS and returns elapsed milliseconds."""
+    start = time.perf_counter()
+    subprocess.run(["java", "gitlet.Main", *args], cwd=repo, check=True,
+                   stdout=subprocess.DEVNULL, stderr=subprocess.DEVNULL)
+    return (time.perf_counter() - start) * 1000
+
+
+def build_repo(repo, files):
+    gitlet(repo, "init")
+    for commit in range(1, 4):
+        for i in range(files):
+            with open(os.path.join(repo, "file%d.txt" % i), "w") as f:
+                f.write("file %d version %d\n" % (i, commit))
+            gitlet(repo, "add", "file%d.txt" % i)
+        gitlet(repo, "commit", "commit %d" % commit)
+
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__.splitlines()[0])
+    parser.add_argument("--runs", type=int, default=10)
+    parser.add_argument("--files", type=int, default=20)
+    parser.add_argument("--save")
+    parser.add_argument("--check")
+    parser.add_argument("--tolerance", type=float, default=0.2)
+    opts = parser.parse_args()
+
+    repo = tempfile.mkdtemp(prefix="gitlet-bench-")
+    try:
+        build_repo(repo, opts.files)
+        medians = {}
+        for name, args in COMMANDS.items():
+            times = [gitlet(repo, *args) for _ in range(opts.runs)]
+            medians[name] = statistics.median(times)
+            print("%-14s %8.1f ms" % (name, medians[name]))
+    finally:
+        shutil.rmtree(repo)
+
+    if opts.save:
+        with open(opts.save, "w") as f:
+            json.dump(medians, f, indent=2)
+    if opts.check:
+        with open(opts.check) as f:
+            baseline = json.load(f)
+        slower = [name for name, ms in medians.items()
+                  if name in baseline and ms > baseline[name] * (1 + opts.tolerance)]
+        if slower:
+            print("Slower than baseline: " + ", ".join(slower))
+            sys.exit(1)
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,558 @@
+"""Command tests for gitlet's local commands.
+
+Usage: python3 test_commands.py [-v]
+
+Runs the gitlet client in scratch repositories and checks the files and
+output the commands leave behind: merge and reset of files in
+subdirectories, with and without sparse-checkout patterns, batch mode,
+fast-export
+streams imported into another repository, bundles, reachability bitmaps,
+fetches limited in depth or to commits without blobs, fetches of several
+remotes and branches at once, pushes to several mirrors, and fetches that
+resume after being interrupted.
+"""
+
+import glob
+import os
+import re
+import shutil
+import struct
+import subprocess
+import tempfile
+import time
+import unittest
+
+
+def gitlet(repo, *args, check=True, stdin=None):
+    """Runs gitlet in REPO with ARGS and returns its standard output."""
+    result = subprocess.run(["java", "gitlet.Main", *args], cwd=repo, check=check,
+                            input=stdin, stdout=subprocess.PIPE,
+                            stderr=subprocess.STDOUT, text=True)
+    return result.stdout
+
+
+def write(repo, name, content):
+    """Writes CONTENT to the file NAME in REPO, creating its directories."""
+    path = os.path.join(repo, name)
+    os.makedirs(os.path.dirname(path), exist_ok=True)
+    with open(path, "w") as out:
+        out.write(content)
+
+
+def read(repo, name):
+    """Returns the contents of the file NAME in REPO, or None if it is absent."""
+    path = os.path.join(repo, name)
+    if not os.path.exists(path):
+        return None
+    with open(path) as contents:
+        return contents.read()
+
+
+def commit(repo, message, **files):
+    """Writes and adds FILES, given as name=content with '__' for '/', to
+    REPO, commits them with MESSAGE and returns the new head id."""
+    for key, content in files.items():
+        name = key.replace("__", "/")
+        write(repo, name, content)
+        gitlet(repo, "add", name)
+    gitlet(repo, "commit", message)
+    return head_id(repo)
+
+
+def head_id(repo):
+    """Returns the id of the head commit of REPO."""
+    return gitlet(repo, "log").splitlines()[1].split()[1]
+
+
+def history(commits):
+    """Returns a fast-import stream of COMMITS commits to master, each after
+    the first changing one of ten files."""
+    stream = []
+    for i in range(commits):
+        message = "commit %d" % i
+        stream.append("commit master\ndata %d\n%s\n" % (len(message), message))
+        for f in range(10) if i == 0 else [i % 10]:
+            content = "file %d at commit %d\n" % (f, i)
+            stream.append("M dir/file%d.txt\ndata %d\n%s" % (f, len(content), content))
+    return "".join(stream) + "done\n"
+
+
+def object_count(repo):
+    """Returns the number of objects stored in REPO."""
+    return len(glob.glob(os.path.join(repo, ".gitlet", "objects", "??", "*")))
+
+
+def status_section(repo, title):
+    """Returns the lines of the section TITLE of REPO's status."""
+    lines = gitlet(repo, "status").splitlines()
+    start = lines.index("=== %s ===" % title) + 1
+    end = lines.index("", start) if "" in lines[start:] else len(lines)
+    return lines[start:end]
+
+
+class CommandTest(unittest.TestCase):
+
+    def setUp(self):
+        self.scratch = tempfile.mkdtemp(prefix="gitlet-commands-")
+        self.repo = self.new_repo("repo")
+
+    def tearDown(self):
+        shutil.rmtree(self.scratch)
+
+    def new_repo(self, name):
+        """Creates and returns an empty repository NAME in the scratch directory."""
+        path = os.path.join(self.scratch, name)
+        os.makedirs(path)
+        gitlet(path, "init")
+        return path
+
+
+class MergeResetTest(CommandTest):
+
+    def setUp(self):
+        super().setUp()
+        commit(self.repo, "base", src__s_txt="s\n", src__keep_txt="keep\n", t_txt="t\n")
+        gitlet(self.repo, "branch", "other")
+
+    def test_merge_deletes_file_in_subdirectory(self):
+        gitlet(self.repo, "checkout", "other")
+        gitlet(self.repo, "rm", "src/s_txt")
+        gitlet(self.repo, "commit", "deleted s")
+        gitlet(self.repo, "checkout", "master")
+        commit(self.repo, "changed t", t_txt="u\n")
+
+        self.assertEqual(gitlet(self.repo, "merge", "other"), "")
+        self.assertIsNone(read(self.repo, "src/s_txt"))
+        self.assertEqual(read(self.repo, "src/keep_txt"), "keep\n")
+        self.assertEqual(read(self.repo, "t_txt"), "u\n")
+        self.assertEqual(status_section(self.repo, "Removed Files"), [])
+        gitlet(self.repo, "checkout", "other")
+        gitlet(self.repo, "checkout", "master")
+        self.assertIsNone(read(self.repo, "src/s_txt"))
+
+    def test_merge_takes_file_in_subdirectory(self):
+        gitlet(self.repo, "checkout", "other")
+        commit(self.repo, "changed s", src__s_txt="s2\n", src__new_txt="new\n")
+        gitlet(self.repo, "checkout", "master")
+        commit(self.repo, "changed t", t_txt="u\n")
+
+        self.assertEqual(gitlet(self.repo, "merge", "other"), "")
+        self.assertEqual(read(self.repo, "src/s_txt"), "s2\n")
+        self.assertEqual(read(self.repo, "src/new_txt"), "new\n")
+        self.assertEqual(read(self.repo, "t_txt"), "u\n")
+
+    def test_merge_conflict_in_subdirectory(self):
+        gitlet(self.repo, "checkout", "other")
+        commit(self.repo, "other s", src__s_txt="other\n")
+        gitlet(self.repo, "checkout", "master")
+        commit(self.repo, "master s", src__s_txt="master\n")
+
+        self.assertEqual(gitlet(self.repo, "merge", "other"),
+                         "Encountered a merge conflict.\n")
+        self.assertEqual(read(self.repo, "src/s_txt"),
+                         "<<<<<<< HEAD\nmaster\n=======\nother\n>>>>>>>\n")
+
+    def test_reset_restores_files_in_subdirectory(self):
+        base = head_id(self.repo)
+        gitlet(self.repo, "rm", "src/s_txt")
+        commit(self.repo, "changed", src__keep_txt="changed\n", src__new_txt="new\n")
+
+        gitlet(self.repo, "reset", base)
+        self.assertEqual(read(self.repo, "src/s_txt"), "s\n")
+        self.assertEqual(read(self.repo, "src/keep_txt"), "keep\n")
+        self.assertIsNone(read(self.repo, "src/new_txt"))
+        self.assertEqual(head_id(self.repo), base)
+        self.assertEqual(status_section(self.repo, "Modifications Not Staged For Commit"), [])
+
+    def test_sparse_checkout_with_status_merge_and_reset(self):
+        base = head_id(self.repo)
+        gitlet(self.repo, "checkout", "other")
+        other = commit(self.repo, "other", src__s_txt="s2\n", t_txt="t2\n")
+        gitlet(self.repo, "checkout", "master")
+
+        gitlet(self.repo, "sparse-checkout", "set", "*_txt")
+        self.assertIsNone(read(self.repo, "src/s_txt"))
+        self.assertEqual(read(self.repo, "t_txt"), "t\n")
+        self.assertEqual(gitlet(self.repo, "sparse-checkout", "list"), "*_txt\n")
+        self.assertEqual(status_section(self.repo, "Modifications Not Staged For Commit"), [])
+        self.assertEqual(status_section(self.repo, "Untracked Files"), [])
+
+        commit(self.repo, "master", u_txt="u\n")
+        self.assertEqual(gitlet(self.repo, "merge", "other"), "")
+        self.assertEqual(read(self.repo, "t_txt"), "t2\n")
+        self.assertIsNone(read(self.repo, "src/s_txt"))
+        self.assertEqual(status_section(self.repo, "Modifications Not Staged For Commit"), [])
+
+        gitlet(self.repo, "reset", base)
+        self.assertIsNone(read(self.repo, "src/s_txt"))
+        self.assertEqual(read(self.repo, "t_txt"), "t\n")
+        self.assertIsNone(read(self.repo, "u_txt"))
+
+        gitlet(self.repo, "sparse-checkout", "disable")
+        self.assertEqual(read(self.repo, "src/s_txt"), "s\n")
+        gitlet(self.repo, "reset", other)
+        self.assertEqual(read(self.repo, "src/s_txt"), "s2\n")
+
+class BatchTest(CommandTest):
+
+    def test_batch_runs_each_line(self):
+        write(self.repo, "a.txt", "a\n")
+        write(self.repo, "b c.txt", "b\n")
+        output = gitlet(self.repo, "batch", stdin=(
+            "add a.txt\n"
+            "add 'b c.txt'\n"
+            "# A comment, then a blank line.\n"
+            "\n"
+            "commit \"first commit\"\n"
+            "rm missing.txt\n"
+            "batch\n"
+            "find \"first commit\"\n"))
+        lines = output.splitlines()
+        self.assertEqual(lines[:2], ["line 6: No reason to remove the file.",
+                                     "line 7: Cannot run batch inside a batch."])
+        self.assertEqual(lines[2:], [head_id(self.repo)])
+        self.assertEqual(status_section(self.repo, "Staged Files"), [])
+        self.assertEqual(status_section(self.repo, "Untracked Files"), [])
+
+    def test_staging_is_saved_at_the_end(self):
+        write(self.repo, "a.txt", "a\n")
+        write(self.repo, "b.txt", "b\n")
+        self.assertEqual(gitlet(self.repo, "batch", stdin="add a.txt\ncheckpoint\nadd b.txt\n"),
+                         "")
+        self.assertEqual(sorted(status_section(self.repo, "Staged Files")), ["a.txt", "b.txt"])
+
+
+class FastImportExportTest(CommandTest):
+
+    def setUp(self):
+        super().setUp()
+        commit(self.repo, "base", src__s_txt="s\n", t_txt="t\n")
+        gitlet(self.repo, "branch", "other")
+        commit(self.repo, "second", src__s_txt="s2\n", src__deep__d_txt="d\n")
+        gitlet(self.repo, "rm", "t_txt")
+        gitlet(self.repo, "commit", "removed t")
+        gitlet(self.repo, "checkout", "other")
+        commit(self.repo, "on other", u_txt="u\n")
+        gitlet(self.repo, "checkout", "master")
+
+    def test_round_trip(self):
+        stream = gitlet(self.repo, "fast-export")
+        copy = self.new_repo("copy")
+        self.assertEqual(gitlet(copy, "fast-import", stdin=stream), "Imported 4 commits.\n")
+
+        ids = re.compile("[0-9a-f]{40}")
+        self.assertEqual(ids.sub("ID", gitlet(copy, "fast-export")), ids.sub("ID", stream))
+        self.assertEqual(status_section(copy, "Branches"), ["*master", "other"])
+        gitlet(copy, "reset", head_id(copy))
+        self.assertEqual(read(copy, "src/s_txt"), "s2\n")
+        self.assertEqual(read(copy, "src/deep/d_txt"), "d\n")
+        self.assertIsNone(read(copy, "t_txt"))
+        gitlet(copy, "checkout", "other")
+        self.assertEqual(read(copy, "src/s_txt"), "s\n")
+        self.assertEqual(read(copy, "u_txt"), "u\n")
+        self.assertIsNone(read(copy, "src/deep/d_txt"))
+
+    def test_export_of_one_branch(self):
+        copy = self.new_repo("copy")
+        gitlet(copy, "fast-import", stdin=gitlet(self.repo, "fast-export", "other"))
+        self.assertEqual(status_section(copy, "Branches"), ["*master", "other"])
+        gitlet(copy, "checkout", "other")
+        self.assertEqual(read(copy, "u_txt"), "u\n")
+
+    def test_malformed_data_is_refused(self):
+        streams = {
+            "commit master\ndata x\nmsg\n": "Expected data for the commit message.\n",
+            "commit master\ndata 3\nmsg\nM a.txt\ndata -1\n":
+                "Expected data for %s.\n" % os.path.join(self.repo, "a.txt"),
+            "commit master\ndata 3\nmsg\nM a.txt\ndata 100\nshort":
+                "Unexpected end of data for %s.\n" % os.path.join(self.repo, "a.txt"),
+        }
+        head = head_id(self.repo)
+        for stream, error in streams.items():
+            self.assertEqual(gitlet(self.repo, "fast-import", stdin=stream), error)
+        self.assertEqual(head_id(self.repo), head)
+        self.assertEqual(glob.glob(os.path.join(self.repo, ".gitlet", "objects", "*.tmp")), [])
+
+
+class BundleTest(CommandTest):
+
+    def setUp(self):
+        super().setUp()
+        self.first = commit(self.repo, "first", src__s_txt="s\n")
+        self.second = commit(self.repo, "second", t_txt="t\n")
+        self.full = os.path.join(self.scratch, "full.bundle")
+        self.since = os.path.join(self.scratch, "since.bundle")
+        gitlet(self.repo, "bundle", "create", self.full, "master")
+        gitlet(self.repo, "bundle", "create", self.since, "master", "--since", self.first)
+
+    def test_unbundle(self):
+        copy = self.new_repo("copy")
+        self.assertEqual(gitlet(copy, "bundle", "unbundle", self.full),
+                         "%s master\n" % self.second)
+        gitlet(copy, "reset", self.second)
+        self.assertEqual(read(copy, "src/s_txt"), "s\n")
+        self.assertEqual(read(copy, "t_txt"), "t\n")
+
+    def test_unbundle_needs_prerequisites(self):
+        copy = self.new_repo("copy")
+        self.assertEqual(gitlet(copy, "bundle", "unbundle", self.since),
+                         "The repository lacks commits this bundle requires.\n")
+        third = commit(self.repo, "third", t_txt="t2\n")
+        gitlet(self.repo, "bundle", "create", self.since, "master", "--since", self.second)
+
+        gitlet(copy, "bundle", "unbundle", self.full)
+        self.assertEqual(gitlet(copy, "bundle", "unbundle", self.since),
+                         "%s master\n" % third)
+        gitlet(copy, "reset", third)
+        self.assertEqual(read(copy, "t_txt"), "t2\n")
+
+    def test_fetch_from_bundle_remote(self):
+        copy = self.new_repo("copy")
+        gitlet(copy, "add-remote", "origin", self.full)
+        self.assertEqual(gitlet(copy, "fetch", "origin", "master"), "")
+        self.assertEqual(gitlet(copy, "fetch", "origin", "other"),
+                         "That remote does not have that branch.\n")
+        self.assertEqual(gitlet(copy, "push", "origin", "master"), "Cannot push to a bundle.\n")
+        gitlet(copy, "checkout", "origin-master")
+        self.assertEqual(head_id(copy), self.second)
+        self.assertEqual(read(copy, "src/s_txt"), "s\n")
+
+    def test_bundle_without_branches_is_refused(self):
+        empty = os.path.join(self.scratch, "empty.bundle")
+        with open(empty, "wb") as out:
+            # No branches and no prerequisites, then a pack with no objects.
+            out.write(struct.pack(">Iii", 0x474C4E31, 0, 0))
+            out.write(struct.pack(">IH", 0x474C5031, 1) + b"/" + bytes([0]))
+        self.assertEqual(gitlet(self.repo, "bundle", "unbundle", empty),
+                         "%s is not a bundle.\n" % empty)
+
+
+class RemoteTest(CommandTest):
+    """A test whose repository has a local remote "origin" with five commits
+    on master, each changing f.txt."""
+
+    def setUp(self):
+        super().setUp()
+        self.remote = self.new_repo("remote")
+        self.remote_ids = [commit(self.remote, "c%d" % i, f_txt="%d\n" % i, src__g_txt="g\n")
+                           for i in range(1, 6)]
+        gitlet(self.repo, "add-remote", "origin", os.path.join(self.remote, ".gitlet"))
+
+    def log_ids(self):
+        """Returns the ids of the commits log shows, newest first."""
+        return [line.split()[1] for line in gitlet(self.repo, "log").splitlines()
+                if line.startswith("commit ")]
+
+
+class ShallowFetchTest(RemoteTest):
+
+    def test_fetch_depth_then_deepen(self):
+        self.assertEqual(gitlet(self.repo, "fetch", "--depth", "2", "origin", "master"), "")
+        gitlet(self.repo, "checkout", "origin-master")
+        self.assertEqual(self.log_ids(), self.remote_ids[:2:-1])
+        self.assertEqual(read(self.repo, "f_txt"), "5\n")
+        self.assertEqual(read(self.repo, "src/g_txt"), "g\n")
+
+        self.assertEqual(gitlet(self.repo, "fetch", "--deepen", "2", "origin", "master"), "")
+        self.assertEqual(self.log_ids(), self.remote_ids[:0:-1])
+        gitlet(self.repo, "reset", self.remote_ids[1])
+        self.assertEqual(read(self.repo, "f_txt"), "2\n")
+        self.assertEqual(gitlet(self.repo, "reset", self.remote_ids[0]),
+                         "No commit with that id exists.\n")
+
+    def test_fetch_new_commits_into_shallow_branch(self):
+        gitlet(self.repo, "fetch", "--depth", "1", "origin", "master")
+        newer = commit(self.remote, "c6", f_txt="6\n")
+        gitlet(self.repo, "fetch", "origin", "master")
+        gitlet(self.repo, "checkout", "origin-master")
+        self.assertEqual(self.log_ids(), [newer, self.remote_ids[-1]])
+        self.assertEqual(read(self.repo, "f_txt"), "6\n")
+
+    def test_depth_must_be_positive(self):
+        for depth in ("0", "-1", "two"):
+            self.assertEqual(gitlet(self.repo, "fetch", "--depth", depth, "origin", "master"),
+                             "Depth must be a positive number.\n")
+
+
+class BitmapTest(RemoteTest):
+
+    def test_ancestry_with_bitmaps(self):
+        output = gitlet(self.remote, "write-bitmaps")
+        self.assertRegex(output, r"^Indexed 6 commits with \d+ bitmaps\.\n$")
+        gitlet(self.remote, "branch", "old")
+        # Commits made after the index was written are not in it.
+        commit(self.remote, "c6", f_txt="6\n")
+        self.assertEqual(gitlet(self.remote, "merge", "old"),
+                         "Given branch is an ancestor of the current branch.\n")
+        gitlet(self.remote, "checkout", "old")
+        self.assertEqual(gitlet(self.remote, "merge", "master"),
+                         "Current branch fast-forwarded.\n")
+        self.assertEqual(read(self.remote, "f_txt"), "6\n")
+
+    def test_push_with_bitmaps(self):
+        gitlet(self.repo, "fetch", "origin", "master")
+        gitlet(self.repo, "checkout", "origin-master")
+        gitlet(self.repo, "write-bitmaps")
+        gitlet(self.remote, "write-bitmaps")
+        pushed = commit(self.repo, "c6", f_txt="6\n")
+
+        self.assertEqual(gitlet(self.repo, "push", "origin", "master"), "")
+        self.assertEqual(head_id(self.remote), pushed)
+        gitlet(self.remote, "reset", pushed)
+        self.assertEqual(read(self.remote, "f_txt"), "6\n")
+        self.assertEqual(gitlet(self.repo, "push", "origin", "master"), "")
+
+
+class BloblessFetchTest(RemoteTest):
+
+    def test_blobs_are_fetched_when_needed(self):
+        self.assertEqual(gitlet(self.repo, "fetch", "--filter=blob:none", "origin", "master"),
+                         "")
+        # The initial commit and the five commits, and none of their blobs.
+        self.assertEqual(object_count(self.repo), 6)
+
+        gitlet(self.repo, "checkout", "origin-master")
+        self.assertEqual(read(self.repo, "f_txt"), "5\n")
+        self.assertEqual(read(self.repo, "src/g_txt"), "g\n")
+        self.assertEqual(object_count(self.repo), 8)
+
+        gitlet(self.repo, "reset", self.remote_ids[1])
+        self.assertEqual(read(self.repo, "f_txt"), "2\n")
+        self.assertEqual(object_count(self.repo), 9)
+        self.assertEqual(gitlet(self.repo, "checkout", self.remote_ids[0], "--", "f_txt"), "")
+        self.assertEqual(read(self.repo, "f_txt"), "1\n")
+
+    def test_blobless_clone(self):
+        copy = os.path.join(self.scratch, "copy")
+        self.assertEqual(gitlet(self.scratch, "clone", "--filter=blob:none", "remote", "copy"),
+                         "")
+        self.assertEqual(read(copy, "f_txt"), "5\n")
+        self.assertEqual(object_count(copy), 8)
+        gitlet(copy, "branch", "old")
+        gitlet(copy, "reset", self.remote_ids[0])
+        commit(copy, "changed g", src__g_txt="g2\n")
+        self.assertEqual(gitlet(copy, "merge", "old"), "")
+        self.assertEqual(read(copy, "f_txt"), "5\n")
+        self.assertEqual(read(copy, "src/g_txt"), "g2\n")
+
+
+class ConcurrentFetchTest(RemoteTest):
+
+    def setUp(self):
+        super().setUp()
+        gitlet(self.remote, "branch", "dev")
+        gitlet(self.remote, "checkout", "dev")
+        self.dev = commit(self.remote, "on dev", d_txt="d\n")
+        gitlet(self.remote, "checkout", "master")
+        self.other = os.path.join(self.scratch, "other")
+        gitlet(self.scratch, "clone", "remote", "other")
+        self.other_head = commit(self.other, "on other", o_txt="o\n")
+        gitlet(self.repo, "add-remote", "other", os.path.join(self.other, ".gitlet"))
+
+    def branch_head(self, branch):
+        """Returns the id of the head of BRANCH of the test repository."""
+        gitlet(self.repo, "checkout", branch)
+        return head_id(self.repo)
+
+    def test_fetch_several_branches(self):
+        output = gitlet(self.repo, "fetch", "origin", "master", "dev", "missing")
+        self.assertRegex(output, r"^origin: fetched 2 branches, 13 objects \(\d+ bytes\) "
+                                 r"in [\d.]+ s\.\n"
+                                 r"  failed missing: That remote does not have that branch\.\n$")
+        self.assertEqual(self.branch_head("origin-master"), self.remote_ids[-1])
+        self.assertEqual(self.branch_head("origin-dev"), self.dev)
+        self.assertEqual(read(self.repo, "d_txt"), "d\n")
+
+    def test_fetch_all(self):
+        output = gitlet(self.repo, "fetch", "--all").splitlines()
+        self.assertEqual(len(output), 2)
+        self.assertRegex(output[0], r"^origin: fetched 2 branches, ")
+        self.assertRegex(output[1], r"^other: fetched 2 branches, ")
+        self.assertEqual(sorted(status_section(self.repo, "Branches")),
+                         ["*master", "origin-dev", "origin-master", "other-dev",
+                          "other-master"])
+        # The initial commit, origin's six commits and seven blobs, and one
+        # commit and blob that only other has: what both share is stored once.
+        self.assertEqual(object_count(self.repo), 16)
+        self.assertEqual(self.branch_head("other-master"), self.other_head)
+        self.assertEqual(read(self.repo, "o_txt"), "o\n")
+        self.assertEqual(self.branch_head("other-dev"), self.dev)
+        self.assertRegex(gitlet(self.repo, "fetch", "--all"),
+                         r"^origin: fetched 2 branches, 0 objects \(0 bytes\)")
+
+
+class MirrorPushTest(CommandTest):
+
+    def test_push_to_mirrors(self):
+        mirrors = [self.new_repo("mirror1"), self.new_repo("mirror2")]
+        for i, mirror in enumerate(mirrors):
+            gitlet(self.repo, "add-remote", "m%d" % (i + 1), os.path.join(mirror, ".gitlet"))
+        gitlet(self.repo, "add-remote", "gone",
+               os.path.join(self.scratch, "gone", ".gitlet"))
+        first = commit(self.repo, "first", src__s_txt="s\n")
+        second = commit(self.repo, "second", t_txt="t\n")
+
+        self.assertEqual(gitlet(self.repo, "push", "m1", "m2", "gone", "master"),
+                         "m1: pushed 2 commits.\nm2: pushed 2 commits.\n"
+                         "gone: failed: Remote directory not found.\n")
+        for mirror in mirrors:
+            self.assertEqual(head_id(mirror), second)
+            gitlet(mirror, "reset", second)
+            self.assertEqual(read(mirror, "src/s_txt"), "s\n")
+
+        gitlet(mirrors[1], "reset", first)
+        third = commit(self.repo, "third", t_txt="t2\n")
+        self.assertEqual(gitlet(self.repo, "push", "m1", "m2", "master"),
+                         "m1: pushed 1 commits.\nm2: pushed 1 commits.\n")
+        self.assertEqual([head_id(mirror) for mirror in mirrors], [third, third])
+
+
+class FetchJournalTest(CommandTest):
+
+    def setUp(self):
+        super().setUp()
+        self.remote = self.new_repo("remote")
+        gitlet(self.remote, "fast-import", stdin=history(3000))
+        gitlet(self.repo, "add-remote", "origin", os.path.join(self.remote, ".gitlet"))
+        self.journal = os.path.join(self.repo, ".gitlet", "journal", "origin-master")
+
+    def checkpointed(self):
+        """Returns the number of commits the journal of a fetch of
+        origin/master last checkpointed."""
+        if not os.path.exists(self.journal):
+            return 0
+        with open(self.journal) as journal:
+            counts = re.findall(r"^checkpoint (\d+)$", journal.read(), re.MULTILINE)
+        return int(counts[-1]) if counts else 0
+
+    def test_interrupted_fetch_resumes(self):
+        fetch = subprocess.Popen(["java", "gitlet.Main", "fetch", "origin", "master"],
+                                 cwd=self.repo, stdout=subprocess.DEVNULL,
+                                 stderr=subprocess.DEVNULL)
+        deadline = time.time() + 60
+        while fetch.poll() is None and self.checkpointed() == 0 and time.time() < deadline:
+            time.sleep(0.01)
+        fetch.kill()
+        fetch.wait()
+        if not os.path.exists(self.journal):
+            self.skipTest("The fetch finished before it could be interrupted.")
+        checkpointed = self.checkpointed()
+        self.assertGreater(checkpointed, 0)
+        self.assertNotIn("origin-master", status_section(self.repo, "Branches"))
+
+        self.assertEqual(gitlet(self.repo, "fetch", "origin", "master"),
+                         "Resuming an interrupted fetch into origin-master after %d commits.\n"
+                         % checkpointed)
+        self.assertFalse(os.path.exists(self.journal))
+        gitlet(self.repo, "checkout", "origin-master")
+        self.assertEqual(head_id(self.repo), head_id(self.remote))
+        self.assertEqual(read(self.repo, "dir/file9.txt"), "file 9 at commit 2999\n")
+
+    def test_fetch_without_journal_does_not_resume(self):
+        self.assertEqual(gitlet(self.repo, "fetch", "origin", "master"), "")
+        self.assertFalse(os.path.exists(self.journal))
+        self.assertEqual(gitlet(self.repo, "fetch", "origin", "master"), "")
+
+
+if __name__ == "__main__":
+    unittest.main()
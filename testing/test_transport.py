@@ -0,0 +1,224 @@
+"""Transport tests for gitlet serve and gitlet:// remotes.
+
+Usage: python3 test_transport.py [-v]
+
+Starts `gitlet serve` on a free loopback port over a scratch directory, then
+pushes and fetches through it with the gitlet client, and sends it crafted
+receive-pack requests that must be refused without touching any file outside
+the served repository, or that carry malformed or Java-serialized commits.
+A fake server checks that the client refuses a malformed branch
+advertisement in the same way.
+"""
+
+import hashlib
+import os
+import shutil
+import socket
+import struct
+import subprocess
+import tempfile
+import threading
+import unittest
+
+PROTOCOL_MAGIC = 0x474C5431
+PACK_MAGIC = 0x474C5031
+BLOB = 1
+COMMIT = 2
+END = 0
+
+
+def gitlet(repo, *args, check=True):
+    """Runs gitlet in REPO with ARGS and returns its standard output."""
+    result = subprocess.run(["java", "gitlet.Main", *args], cwd=repo, check=check,
+                            stdout=subprocess.PIPE, stderr=subprocess.STDOUT, text=True)
+    return result.stdout
+
+
+def utf(text):
+    """Returns TEXT as DataOutputStream.writeUTF writes it."""
+    data = text.encode("utf-8")
+    return struct.pack(">H", len(data)) + data
+
+
+def read_exactly(sock, count):
+    """Reads COUNT bytes from SOCK, or fewer if it is closed first."""
+    data = b""
+    while len(data) < count:
+        chunk = sock.recv(count - len(data))
+        if not chunk:
+            break
+        data += chunk
+    return data
+
+
+def read_utf(sock):
+    """Reads a string written by DataOutputStream.writeUTF from SOCK."""
+    length, = struct.unpack(">H", read_exactly(sock, 2))
+    return read_exactly(sock, length).decode("utf-8")
+
+
+class TransportTest(unittest.TestCase):
+
+    def setUp(self):
+        self.scratch = tempfile.mkdtemp(prefix="gitlet-transport-")
+        self.served = os.path.join(self.scratch, "served")
+        self.remote = os.path.join(self.served, "remote")
+        self.local = os.path.join(self.scratch, "local")
+        for path in (self.remote, self.local):
+            os.makedirs(path)
+            gitlet(path, "init")
+        with open(os.path.join(self.local, "wug.txt"), "w") as out:
+            out.write("This is a wug.\n")
+        gitlet(self.local, "add", "wug.txt")
+        gitlet(self.local, "commit", "added wug")
+
+        self.server = subprocess.Popen(["java", "gitlet.Main", "serve", "0"],
+                                       cwd=self.served, stdout=subprocess.PIPE,
+                                       stderr=subprocess.PIPE, text=True)
+        banner = self.server.stdout.readline()
+        self.assertIn("127.0.0.1", banner)
+        self.port = int(banner.rstrip(".\n").split()[-1])
+        self.url = "gitlet://127.0.0.1:%d/remote" % self.port
+
+    def tearDown(self):
+        self.server.kill()
+        self.server.wait()
+        self.server.stdout.close()
+        self.server.stderr.close()
+        shutil.rmtree(self.scratch)
+
+    def heads(self, service="receive-pack"):
+        """Opens a connection for SERVICE on the served repository and
+        returns it with the advertised branch heads."""
+        sock = socket.create_connection(("127.0.0.1", self.port))
+        sock.sendall(struct.pack(">I", PROTOCOL_MAGIC) + utf(service) + utf("/remote"))
+        self.assertEqual(read_exactly(sock, 1), b"\x01")
+        count, = struct.unpack(">i", read_exactly(sock, 4))
+        refs = {}
+        for _ in range(count):
+            name = read_utf(sock)
+            refs[name] = read_utf(sock)
+        return sock, refs
+
+    def master_head(self):
+        """Returns the head the served repository advertises for master."""
+        sock, refs = self.heads()
+        sock.close()
+        return refs["master"]
+
+    def crafted_push(self, branch, old_id, new_id, blob_id, path, content):
+        """Pushes NEW_ID to BRANCH with a pack of one blob, and returns what
+        the server answered, or None if it hung up."""
+        record = bytes([BLOB]) + utf(blob_id) + utf(path)
+        record += struct.pack(">q", len(content)) + content
+        return self.crafted_pack(branch, old_id, new_id, record)
+
+    def crafted_pack(self, branch, old_id, new_id, records):
+        """Pushes NEW_ID to BRANCH with a pack of RECORDS, and returns what
+        the server answered, or None if it hung up."""
+        sock, _ = self.heads()
+        with sock:
+            request = utf(branch) + utf(old_id) + utf(new_id)
+            # Two empty negotiations: the client asks about no commits or blobs.
+            request += struct.pack(">ii", 0, 0)
+            request += struct.pack(">I", PACK_MAGIC) + utf(self.local)
+            request += records + bytes([END])
+            try:
+                sock.sendall(request)
+                return read_exactly(sock, 1) or None
+            except ConnectionError:
+                return None
+
+    def object_path(self, object_id):
+        return os.path.join(self.remote, ".gitlet", "objects", object_id[:2], object_id[2:])
+
+    def test_push_then_fetch(self):
+        gitlet(self.local, "add-remote", "origin", self.url)
+        gitlet(self.local, "push", "origin", "master")
+
+        other = os.path.join(self.scratch, "other")
+        os.mkdir(other)
+        gitlet(other, "init")
+        gitlet(other, "add-remote", "origin", self.url)
+        gitlet(other, "fetch", "origin", "master")
+        gitlet(other, "checkout", "origin-master")
+        with open(os.path.join(other, "wug.txt")) as wug:
+            self.assertEqual(wug.read(), "This is a wug.\n")
+
+    def test_blob_id_cannot_name_a_path(self):
+        head = self.master_head()
+        target = os.path.join(self.scratch, "evil_target")
+        blob_id = "../../../../../../../../.." + target
+        self.assertIsNone(self.crafted_push("master", head, head, blob_id,
+                                            os.path.join(self.local, "evil.txt"), b"evil\n"))
+        self.assertFalse(os.path.exists(target))
+
+    def test_blob_must_match_its_id(self):
+        head = self.master_head()
+        path = os.path.join(self.local, "wug.txt")
+        forged = hashlib.sha1(path.encode() + b"This is a wug.\n").hexdigest()
+        self.assertIsNone(self.crafted_push("master", head, head, forged, path, b"not a wug\n"))
+        self.assertFalse(os.path.exists(self.object_path(forged)))
+
+        content = b"This is a wug.\n"
+        genuine = hashlib.sha1(path.encode() + content).hexdigest()
+        self.assertEqual(self.crafted_push("master", head, head, genuine, path, content),
+                         b"\x01")
+        self.assertTrue(os.path.exists(self.object_path(genuine)))
+
+    def test_branch_name_cannot_name_a_path(self):
+        head = self.master_head()
+        path = os.path.join(self.local, "wug.txt")
+        content = b"This is a wug.\n"
+        blob_id = hashlib.sha1(path.encode() + content).hexdigest()
+        for branch in ("../../../evil_branch", "sub/evil_branch", ".evil_branch"):
+            self.assertIsNone(self.crafted_push(branch, "", head, blob_id, path, content))
+        self.assertFalse(os.path.exists(os.path.join(self.scratch, "evil_branch")))
+        self.assertEqual(sorted(os.listdir(os.path.join(self.remote, ".gitlet", "branches"))),
+                         ["active branch", "master"])
+
+    def test_malformed_commits_are_refused(self):
+        head = self.master_head()
+        serialized = b"\xac\xed\x00\x05" + b"\x00" * 60
+        for record in (struct.pack(">bi", COMMIT, -1),
+                       struct.pack(">bi", COMMIT, len(serialized)) + serialized):
+            self.assertIsNone(self.crafted_pack("master", head, head, record))
+        # The server is still answering, and reports both packs as malformed.
+        self.assertEqual(self.master_head(), head)
+        timer = threading.Timer(10, self.server.kill)
+        timer.start()
+        errors = []
+        while sum("Received a malformed pack." in line for line in errors) < 2:
+            line = self.server.stderr.readline()
+            if not line:
+                break
+            errors.append(line)
+        timer.cancel()
+        self.assertNotIn("Exception", "".join(errors))
+        self.assertEqual(len(errors), 2, "".join(errors))
+
+    def test_client_refuses_malformed_advertisement(self):
+        fake = socket.create_server(("127.0.0.1", 0))
+        port = fake.getsockname()[1]
+
+        def advertise():
+            client, _ = fake.accept()
+            with client:
+                read_exactly(client, 4)
+                read_utf(client)
+                read_utf(client)
+                client.sendall(b"\x01" + struct.pack(">i", 1)
+                               + utf("../../evil_branch") + utf("0" * 40))
+
+        thread = threading.Thread(target=advertise)
+        thread.start()
+        gitlet(self.local, "add-remote", "fake", "gitlet://127.0.0.1:%d/remote" % port)
+        output = gitlet(self.local, "fetch", "fake", "master", check=False)
+        thread.join()
+        fake.close()
+        self.assertIn("malformed", output)
+        self.assertFalse(os.path.exists(os.path.join(self.scratch, "evil_branch")))
+
+
+if __name__ == "__main__":
+    unittest.main()